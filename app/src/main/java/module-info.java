@@ -10,6 +10,7 @@ module pawgen {
 	requires java.xml;
 	requires java.desktop;
 	requires java.net.http;
+	requires jdk.httpserver;
 	requires java.logging;
 	requires org.slf4j;
 	requires org.slf4j.jul;
@@ -4,6 +4,8 @@ import lombok.extern.slf4j.Slf4j;
 import net.pawet.pawgen.component.Pawgen;
 import net.pawet.pawgen.component.deployer.DeployerFactory;
 import net.pawet.pawgen.component.system.CliOptions;
+import net.pawet.pawgen.component.system.storage.DigestAwareResource;
+import net.pawet.pawgen.deployer.DeployPipeline;
 
 import java.time.Clock;
 import java.time.Duration;
@@ -25,16 +27,25 @@ public class Application {
 		log.info("Executed with config: {}", config);
 		try (var app = setupShutdownHook(Pawgen.create(CLOCK, config))) {
 			var cleanupIn = app.cleanupOutputDir();
-			var renderIn = app.render();
-			long startDeploy = CLOCK.millis();
-			try (var files = app.readOutputDir()) {
-				DeployerFactory.create(config)
-					.deployer(config.getDeployerNames())
-					.accept(files.toList());
+			if (config.isServe()) {
+				var renderIn = app.render();
+				log.info("Cleanup {}min, render {}min", cleanupIn.toMinutes(), renderIn.toMinutes());
+				app.serve(config.getServeHost(), config.getServePort());
+				return 0;
+			}
+			try (var pipeline = deployPipeline(config)) {
+				var renderIn = app.render(pipeline::offer);
+				long startDeploy = CLOCK.millis();
+				try (var files = app.readOutputDir()) {
+					pipeline.complete(files.toList());
+				}
+				log.info("Cleanup {}min, render {}min, img processing {}min, copy resources {}min, deploy {}min",
+					cleanupIn.toMinutes(), renderIn.toMinutes(), app.getImageProcessingTime().toMinutes(), app.getCopyResourcesTime().toMinutes(), Duration.ofMillis(CLOCK.millis() - startDeploy).toMinutes()
+				);
+			}
+			if (config.isWatch()) {
+				app.watch();
 			}
-			log.info("Cleanup {}min, render {}min, img processing {}min, copy resources {}min, deploy {}min",
-				cleanupIn.toMinutes(), renderIn.toMinutes(), app.getImageProcessingTime().toMinutes(), app.getCopyResourcesTime().toMinutes(), Duration.ofMillis(CLOCK.millis() - startDeploy).toMinutes()
-			);
 		} catch (Throwable e) {
 			log.error("Unrecoverable error: {}", e.getMessage(), e);
 			CliOptions.handleError(e).forEach(log::error);
@@ -45,6 +56,18 @@ public class Application {
 		return 0;
 	}
 
+	/**
+	 * Pipeline uploads while rendering, otherwise everything is deployed once site is rendered
+	 */
+	private static DeployPipeline<DigestAwareResource> deployPipeline(CliOptions config) {
+		var deployerFactory = DeployerFactory.create(config);
+		var deployerNames = config.getDeployerNames().toArray(String[]::new);
+		if (config.isDeployPipeline()) {
+			return deployerFactory.pipeline(deployerNames);
+		}
+		return DeployPipeline.deferred(deployerFactory.deployer(deployerNames));
+	}
+
 	private static Pawgen setupShutdownHook(Pawgen app) {
 		Runtime.getRuntime().addShutdownHook(new Thread(app::close));
 		return app;
@@ -4,11 +4,11 @@ import lombok.*;
 import lombok.extern.slf4j.Slf4j;
 import net.pawet.pawgen.component.system.storage.ArticleResource;
 import net.pawet.pawgen.component.system.storage.AttachmentResource;
+import net.pawet.pawgen.utils.ChannelWriter;
 
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.channels.Channels;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Collection;
@@ -17,7 +17,6 @@ import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static lombok.AccessLevel.PRIVATE;
 
 @ToString(onlyExplicitlyIncluded = true)
@@ -121,7 +120,7 @@ public final class Article implements Comparable<Article> {
 	}
 
 	public Writer writer() {
-		return Channels.newWriter(resource.writableFor(title), UTF_8);
+		return new ChannelWriter(resource.writableFor(title));
 	}
 
 	private AttachmentResource initAttachment() {
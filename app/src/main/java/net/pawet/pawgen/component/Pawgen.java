@@ -10,23 +10,43 @@ import net.pawet.pawgen.component.resource.ResourceProcessor;
 import net.pawet.pawgen.component.resource.img.ProcessableImageFactory;
 import net.pawet.pawgen.component.resource.img.WatermarkFilterFactory;
 import net.pawet.pawgen.component.system.CliOptions;
+import net.pawet.pawgen.component.system.DirWatcher;
+import net.pawet.pawgen.component.system.PreviewServer;
 import net.pawet.pawgen.component.system.ProcessingExecutorService;
+import net.pawet.pawgen.component.system.TemplateExecutorService;
 import net.pawet.pawgen.component.system.storage.DigestAwareResource;
 import net.pawet.pawgen.component.system.storage.FileSystemRegistry;
+import net.pawet.pawgen.component.system.storage.OutputFile;
 import net.pawet.pawgen.component.system.storage.Resource;
 import net.pawet.pawgen.component.system.storage.Storage;
 import net.pawet.pawgen.component.xml.ArticleParser;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+import static java.util.function.Predicate.not;
+import static java.util.stream.Collectors.toSet;
+
 @Slf4j
 @RequiredArgsConstructor
 public class Pawgen implements AutoCloseable {
 
+	private static final Duration WATCH_QUIET_PERIOD = Duration.ofMillis(300);
+
 	private final Clock clock;
 	private final ProcessingExecutorService processingExecutor;
+	private final TemplateExecutorService templateExecutor;
+	private final Templater templater;
 	private final ArticleQuery queryService;
 	private final Renderer renderer;
 	private final FileSystemRegistry fsRegistry;
@@ -36,19 +56,23 @@ public class Pawgen implements AutoCloseable {
 	public static Pawgen create(Clock clock, CliOptions opts) {
 		var fsRegistry = new FileSystemRegistry();
 		var storage = Storage.create(
-			opts.getStaticUris().stream().flatMap(fsRegistry::parseCopyDir),
+			() -> opts.getStaticUris().stream().flatMap(fsRegistry::parseCopyDir),
 			fsRegistry.getPathFsRegistration(opts.getContentUri()),
-			fsRegistry.getPathFsRegistration(opts.getOutputUri())
+			fsRegistry.getPathFsRegistration(opts.getOutputUri()),
+			opts.isOutputSync(),
+			opts.isDigestFileAttributes(),
+			opts.isDigestAsync()
 		);
 		var watermarkFilter = new WatermarkFilterFactory(fsRegistry::getPathFsRegistration)
 			.create(opts.getWatermarkText(), opts.getWatermarkUri());
 		var imageFactory = ProcessableImageFactory.of(watermarkFilter, 250);
 		var processingExecutor = new ProcessingExecutorService();
 		var resourceFactory = new ResourceProcessor(storage, imageFactory, opts.getHosts());
-		var templater = new Templater(storage::readFromInput, fsRegistry.getPathFsRegistration(opts.getTemplatesUri()), processingExecutor);
+		var templateExecutor = opts.isTemplateConcurrent() ? new TemplateExecutorService() : null;
+		var templater = new Templater(storage::readFromInput, fsRegistry.getPathFsRegistration(opts.getTemplatesUri()), templateExecutor);
 		var queryService = new ArticleQuery(storage, new ArticleParser(resourceFactory));
 		var renderer = Renderer.of(templater, clock, queryService, processingExecutor);
-		return new Pawgen(clock, processingExecutor, queryService, renderer, fsRegistry, storage, resourceFactory);
+		return new Pawgen(clock, processingExecutor, templateExecutor, templater, queryService, renderer, fsRegistry, storage, resourceFactory);
 	}
 
 	public Stream<DigestAwareResource> readOutputDir() {
@@ -74,6 +98,18 @@ public class Pawgen implements AutoCloseable {
 		return measure(this::renderInternal);
 	}
 
+	/**
+	 * Renders and hands every output file to listener as soon as it is written and digested
+	 */
+	public Duration render(Consumer<DigestAwareResource> onOutput) {
+		storage.onOutputDigested(onOutput);
+		try {
+			return render();
+		} finally {
+			storage.onOutputDigested(null);
+		}
+	}
+
 	@SneakyThrows
 	public void renderInternal() {
 		processingExecutor.execute(this::copyFiles);
@@ -83,8 +119,109 @@ public class Pawgen implements AutoCloseable {
 				.forEach(Renderer.ArticleContext::render);
 		}
 		processingExecutor.waitAllExecuted();
+		log.debug("Template lookups: {}, navigation queries: {}", renderer.getTemplateLookupCount(), renderer.getNavigationQueryCount());
+		if (templateExecutor != null) {
+			log.debug("Template {}", templateExecutor);
+		}
 		assert storage.assertChecksums() : "Some checksum are inconsistent";
 		storage.writeAliases(renderer.getAliases().toList());
+		storage.removeOrphans();
+		storage.flushDigests();
+	}
+
+	/**
+	 * Serves output from memory and renders changed content till interrupted
+	 *
+	 * @param host interface to listen on, loopback only if null
+	 */
+	public void serve(String host, int port) {
+		var address = host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(host, port);
+		try (var server = PreviewServer.start(address, this::readOutput)) {
+			log.info("Serving preview on http://{}:{}/", server.getAddress().getHostString(), server.getAddress().getPort());
+			watch();
+		}
+	}
+
+	/**
+	 * Reads output, renders article on demand if it wasn't reached by navigation
+	 */
+	public Optional<OutputFile> readOutput(String url) {
+		return storage.readOutput(url).or(() -> renderOnDemand(url) ? storage.readOutput(url) : Optional.empty());
+	}
+
+	@SneakyThrows
+	private boolean renderOnDemand(String url) {
+		int categoryEnd = url.lastIndexOf('/');
+		if (!url.endsWith(".html") || categoryEnd < 0) {
+			return false;
+		}
+		var categoryParts = url.substring(categoryEnd > 0 && url.startsWith("/") ? 1 : 0, categoryEnd).split("/", -1);
+		if (categoryEnd > 0 && Stream.of(categoryParts).anyMatch(part -> part.isEmpty() || ".".equals(part) || "..".equals(part))) {
+			log.debug("Not an article url {}", url);
+			return false;
+		}
+		var category = Category.of(Stream.of(categoryParts).filter(not(String::isEmpty)).toArray(String[]::new));
+		var article = queryService.getArticles(category).filter(a -> url.equals(a.getUrl())).findAny();
+		article.map(renderer::create).ifPresent(Renderer.ArticleContext::render);
+		processingExecutor.waitAllExecuted();
+		return article.isPresent();
+	}
+
+	/**
+	 * Blocks and renders changed content till interrupted
+	 */
+	@SneakyThrows
+	public void watch() {
+		var dirs = Stream.concat(storage.inputDirs(), templater.getDependencies().stream().map(Path::getParent)).distinct().toList();
+		try (var watcher = DirWatcher.create(dirs)) {
+			log.info("Watching for changes in {}", dirs);
+			watcher.run(WATCH_QUIET_PERIOD, changed -> log.info("Changes rendered in {}ms", measure(() -> handleChanges(changed)).toMillis()));
+		}
+	}
+
+	/**
+	 * Renders again articles affected by changed files: the article itself, parents children lists, ancestors latest lists,
+	 * children (parent link) and articles that embed the file. Changed template renders everything.
+	 */
+	public void handleChanges(Collection<Path> changed) {
+		log.debug("Changed {}", changed);
+		try {
+			if (changed.stream().anyMatch(templater.getDependencies()::contains) && templater.reload()) {
+				rerender(Set.of(), __ -> true);
+				return;
+			}
+			changed.stream().map(storage::invalidateInput).flatMap(Optional::stream).forEach(Resource::transfer);
+			var categories = changed.stream().map(storage::categoryOf).flatMap(Optional::stream)
+				.flatMap(this::affectedCategories)
+				.collect(toSet());
+			var embedding = renderer.getEmbedding(path -> changed.contains(storage.resolveInput(path))).collect(toSet());
+			rerender(categories, article -> categories.contains(article.getCategory()) || embedding.contains(article));
+		} catch (Exception e) {
+			log.error("Can't render changes {}", changed, e);
+		}
+	}
+
+	private Stream<Category> affectedCategories(Category category) {
+		var ancestors = Stream.iterate(category, Objects::nonNull, Category::getParent);
+		var children = queryService.getChildren(category).map(Article::getCategory);
+		return Stream.concat(ancestors, children);
+	}
+
+	@SneakyThrows
+	private void rerender(Set<Category> categories, Predicate<Article> affected) {
+		var invalidated = renderer.invalidate(affected);
+		invalidated.forEach(article -> storage.deleteOutput(article.getUrl()));
+		var toRender = Stream.concat(categories.stream(), invalidated.stream().map(Article::getCategory)).collect(toSet());
+		queryService.invalidate(toRender);
+		toRender.stream()
+			.flatMap(queryService::getArticles)
+			.map(renderer::create)
+			.forEach(Renderer.ArticleContext::render);
+		processingExecutor.waitAllExecuted();
+		storage.writeAliases(renderer.getAliases().toList());
+		storage.removeOrphans();
+		storage.flushDigests();
+		log.info("Rendered again {} categories", toRender.size());
 	}
 
 	public Duration getImageProcessingTime() {
@@ -99,6 +236,10 @@ public class Pawgen implements AutoCloseable {
 	@SneakyThrows
 	public void close() {
 		processingExecutor.close();
+		if (templateExecutor != null) {
+			templateExecutor.close();
+		}
+		storage.close();
 		fsRegistry.close();
 	}
 
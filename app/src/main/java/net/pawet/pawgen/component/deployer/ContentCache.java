@@ -0,0 +1,104 @@
+package net.pawet.pawgen.component.deployer;
+
+import lombok.SneakyThrows;
+import net.pawet.pawgen.component.system.storage.DigestAwareResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Output file content shared by targets deployed at the same time: file is read from disk once and handed to every
+ * target asking for it. Least recently used files are dropped above the size limit, big files are always streamed.
+ */
+final class ContentCache {
+
+	static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+	private static final int MAX_CACHED_FILE_FRACTION = 16;
+
+	private final long maxBytes;
+	private final Map<String, CompletableFuture<byte[]>> files = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Long> sizes = new LinkedHashMap<>();
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private long bytes;
+
+	ContentCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Every read goes to disk.
+	 */
+	static ContentCache none() {
+		return new ContentCache(0);
+	}
+
+	InputStream inputStream(DigestAwareResource resource) {
+		if (resource.getSizeInBytes() > maxBytes / MAX_CACHED_FILE_FRACTION) {
+			reads.increment();
+			return Channels.newInputStream(resource.readable());
+		}
+		CompletableFuture<byte[]> content;
+		boolean load;
+		synchronized (this) {
+			content = files.get(resource.getPath());
+			load = content == null;
+			if (load) {
+				content = new CompletableFuture<>();
+				put(resource.getPath(), content, resource.getSizeInBytes());
+			}
+		}
+		if (load) {
+			read(resource, content);
+		} else {
+			hits.increment();
+		}
+		try {
+			return new ByteArrayInputStream(content.join());
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof RuntimeException re ? re : e;
+		}
+	}
+
+	private void put(String path, CompletableFuture<byte[]> content, long size) {
+		files.put(path, content);
+		sizes.put(path, size);
+		bytes += size;
+		var eldest = files.keySet().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			var key = eldest.next();
+			if (!key.equals(path)) {
+				eldest.remove();
+				bytes -= sizes.remove(key);
+			}
+		}
+	}
+
+	@SneakyThrows
+	private void read(DigestAwareResource resource, CompletableFuture<byte[]> content) {
+		reads.increment();
+		try (var is = Channels.newInputStream(resource.readable())) {
+			content.complete(is.readAllBytes());
+		} catch (Exception e) {
+			synchronized (this) {
+				if (files.remove(resource.getPath(), content)) {
+					bytes -= sizes.remove(resource.getPath());
+				}
+			}
+			content.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "content cache: %d reads from disk, %d shared".formatted(reads.sum(), hits.sum());
+	}
+
+}
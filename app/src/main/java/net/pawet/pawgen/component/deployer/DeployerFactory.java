@@ -1,11 +1,15 @@
 package net.pawet.pawgen.component.deployer;
 
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 import lombok.experimental.Delegate;
 import lombok.extern.slf4j.Slf4j;
 import net.pawet.pawgen.component.system.CliOptions;
 import net.pawet.pawgen.component.system.storage.DigestAwareResource;
 import net.pawet.pawgen.deployer.CloudflarePagesDeployer;
+import net.pawet.pawgen.deployer.DeployPipeline;
+import net.pawet.pawgen.deployer.DeployState;
+import net.pawet.pawgen.deployer.DeployerTransport;
 import net.pawet.pawgen.deployer.NetlifyDeployer;
 import net.pawet.pawgen.deployer.deployitem.Content;
 import net.pawet.pawgen.deployer.deployitem.Digest;
@@ -15,7 +19,12 @@ import net.pawet.pawgen.deployer.deployitem.Size;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.channels.Channels;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 @Slf4j
@@ -25,20 +34,30 @@ public final class DeployerFactory {
 	private final URI netlifyUrl;
 	private final String netlifyAccessToken;
 	private final String netlifySiteId;
+	private final int netlifyUploadConcurrency;
 	private final URI cloudflarePagesUrl;
 	private final String cloudflarePagesToken;
 	private final String cloudflarePagesProjectName;
 	private final String cloudflarePagesAccountId;
+	private final int cloudflarePagesUploadConcurrency;
+	private final java.nio.file.Path deployStateDir;
+	private final Duration deployStateVerifyInterval;
+	private final boolean parallel;
 
 	public static DeployerFactory create(CliOptions config) {
 		return new DeployerFactory(
 			config.getNetlifyUrl(),
 			config.getNetlifyAccessToken(),
 			config.getNetlifySiteId(),
+			config.getNetlifyUploadConcurrency(),
 			config.getCloudflarePagesUrl(),
 			config.getCloudflarePagesToken(),
 			config.getCloudflarePagesProjectName(),
-			config.getCloudflarePagesAccountId()
+			config.getCloudflarePagesAccountId(),
+			config.getCloudflarePagesUploadConcurrency(),
+			Optional.ofNullable(config.getDeployStateUri()).map(java.nio.file.Path::of).orElse(null),
+			config.getDeployStateVerifyInterval(),
+			config.isDeployParallel()
 		);
 	}
 
@@ -47,31 +66,122 @@ public final class DeployerFactory {
 		return files -> deploy(files, deployerNames);
 	}
 
-	private void deploy(Collection<DigestAwareResource> files, String[] deployerNames) {
+	/**
+	 * Uploads ahead while site is rendered where target allows it, every target is deployed on completion.
+	 */
+	public DeployPipeline<DigestAwareResource> pipeline(String... deployerNames) {
+		assert deployerNames != null : "can't be null";
+		var transport = new DeployerTransport();
+		var contentCache = contentCache(deployerNames);
+		var pipelines = new LinkedHashMap<String, DeployPipeline<DigestAwareResource>>();
 		for (String deployerName : deployerNames) {
-			log.info("Deploying with {}", deployerName);
-			try {
-				deploy(files, Type.from(deployerName));
-			} catch (Exception e) {
-				log.error("Deploy with {} failed", deployerName, e);
+			pipelines.put(deployerName, pipeline(transport, Type.from(deployerName), contentCache));
+		}
+		return new DeployPipeline<>() {
+			@Override
+			public void offer(DigestAwareResource file) {
+				pipelines.values().forEach(pipeline -> pipeline.offer(file));
+			}
+
+			@Override
+			public void complete(Collection<DigestAwareResource> files) {
+				var deploys = new LinkedHashMap<String, Runnable>();
+				pipelines.forEach((deployerName, pipeline) -> deploys.put(deployerName, () -> pipeline.complete(files)));
+				deployTargets(deploys);
+				log.debug("Deployed with {}", contentCache);
 			}
+
+			@Override
+			public void close() {
+				try (transport) {
+					pipelines.values().forEach(DeployPipeline::close);
+				}
+			}
+		};
+	}
+
+	private DeployPipeline<DigestAwareResource> pipeline(DeployerTransport transport, Type type, ContentCache contentCache) {
+		switch (type) {
+			case NETLIFY:
+				return netlify(transport).<DigestAwareResourceFile>pipeline().map(resource -> DigestAwareResourceFile.netlify(resource, contentCache));
+			case CLOUDFLARE_PAGES:
+				return cloudflare(transport).<DigestAwareResourceFile>pipeline().map(resource -> DigestAwareResourceFile.cloudflare(resource, contentCache));
+			default:
+				return DeployPipeline.deferred(__ -> {});
 		}
 	}
 
-	private void deploy(Collection<DigestAwareResource> files, Type type) {
+	private void deploy(Collection<DigestAwareResource> files, String[] deployerNames) {
+		try (var transport = new DeployerTransport()) {
+			var contentCache = contentCache(deployerNames);
+			var deploys = new LinkedHashMap<String, Runnable>();
+			for (String deployerName : deployerNames) {
+				deploys.put(deployerName, () -> deploy(transport, files, Type.from(deployerName), contentCache));
+			}
+			deployTargets(deploys);
+			log.debug("Deployed with {}", contentCache);
+		}
+	}
+
+	/**
+	 * Targets deployed at the same time read every file from disk once
+	 */
+	private ContentCache contentCache(String[] deployerNames) {
+		return parallel && deployerNames.length > 1 ? new ContentCache(ContentCache.DEFAULT_MAX_BYTES) : ContentCache.none();
+	}
+
+	/**
+	 * Every target is deployed in its own thread if parallel, one by one otherwise. Failed target doesn't stop the others.
+	 */
+	@SneakyThrows
+	private void deployTargets(Map<String, Runnable> deploys) {
+		if (!parallel || deploys.size() < 2) {
+			deploys.forEach(this::deployTarget);
+			return;
+		}
+		var threads = deploys.entrySet().stream()
+			.map(deploy -> Thread.ofVirtual().name("deploy-" + deploy.getKey().toLowerCase()).start(() -> deployTarget(deploy.getKey(), deploy.getValue())))
+			.toList();
+		for (var thread : threads) {
+			thread.join();
+		}
+	}
+
+	private void deployTarget(String deployerName, Runnable deploy) {
+		log.info("Deploying with {}", deployerName);
+		long start = System.nanoTime();
+		try {
+			deploy.run();
+			log.info("Deployed with {} in {}s", deployerName, Duration.ofNanos(System.nanoTime() - start).toSeconds());
+		} catch (Exception e) {
+			log.error("Deploy with {} failed after {}s", deployerName, Duration.ofNanos(System.nanoTime() - start).toSeconds(), e);
+		}
+	}
+
+	private void deploy(DeployerTransport transport, Collection<DigestAwareResource> files, Type type, ContentCache contentCache) {
 		switch (type) {
 			case NETLIFY:
-				new NetlifyDeployer(netlifyUrl, netlifyAccessToken, netlifySiteId)
-					.deploy(files.stream().map(DigestAwareResourceFile::netlify).toList());
+				netlify(transport).deploy(files.stream().map(resource -> DigestAwareResourceFile.netlify(resource, contentCache)).toList());
 				break;
 			case CLOUDFLARE_PAGES:
-				new CloudflarePagesDeployer(cloudflarePagesUrl, cloudflarePagesToken, cloudflarePagesProjectName, cloudflarePagesAccountId)
-					.deploy(files.stream().map(DigestAwareResourceFile::cloudflare).toList());
+				cloudflare(transport).deploy(files.stream().map(resource -> DigestAwareResourceFile.cloudflare(resource, contentCache)).toList());
 				break;
 			case NONE:
 		}
 	}
 
+	private NetlifyDeployer netlify(DeployerTransport transport) {
+		return new NetlifyDeployer(transport, netlifyUrl, netlifyAccessToken, netlifySiteId, netlifyUploadConcurrency, state("netlify-" + netlifySiteId));
+	}
+
+	private CloudflarePagesDeployer cloudflare(DeployerTransport transport) {
+		return new CloudflarePagesDeployer(transport, cloudflarePagesUrl, cloudflarePagesToken, cloudflarePagesProjectName, cloudflarePagesAccountId, cloudflarePagesUploadConcurrency, state("cloudflare-" + cloudflarePagesAccountId + "-" + cloudflarePagesProjectName));
+	}
+
+	private DeployState state(String target) {
+		return DeployState.load(deployStateDir, target, Clock.systemUTC(), deployStateVerifyInterval);
+	}
+
 	enum Type {
 		NETLIFY,
 		CLOUDFLARE_PAGES,
@@ -8,21 +8,20 @@ import net.pawet.pawgen.deployer.deployitem.Path;
 import net.pawet.pawgen.deployer.deployitem.Size;
 
 import java.io.InputStream;
-import java.nio.channels.Channels;
 
-record DigestAwareResourceFile(@Delegate(types = {Path.class, Size.class}) DigestAwareResource resource, String digestName) implements Digest, Content, Path, Size {
+record DigestAwareResourceFile(@Delegate(types = {Path.class, Size.class}) DigestAwareResource resource, String digestName, ContentCache contentCache) implements Digest, Content, Path, Size {
 
-	public static DigestAwareResourceFile netlify(DigestAwareResource resource) {
-		return new DigestAwareResourceFile(resource, "sha1");
+	public static DigestAwareResourceFile netlify(DigestAwareResource resource, ContentCache contentCache) {
+		return new DigestAwareResourceFile(resource, "sha1", contentCache);
 	}
 
-	public static DigestAwareResourceFile cloudflare(DigestAwareResource resource) {
-		return new DigestAwareResourceFile(resource, "cfdigest");
+	public static DigestAwareResourceFile cloudflare(DigestAwareResource resource, ContentCache contentCache) {
+		return new DigestAwareResourceFile(resource, "cfdigest", contentCache);
 	}
 
 	@Override
 	public InputStream inputStream() {
-		return Channels.newInputStream(resource.readable());
+		return contentCache.inputStream(resource);
 	}
 
 	@Override
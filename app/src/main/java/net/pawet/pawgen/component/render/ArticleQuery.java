@@ -63,6 +63,18 @@ public class ArticleQuery {
 		}
 	}
 
+	/**
+	 * Drops cached articles of categories, parent children lists and all latest lists
+	 */
+	public void invalidate(Collection<Category> categories) {
+		for (Category category : categories) {
+			cacheArticle.remove(category);
+			cacheChildren.remove(category);
+			Optional.ofNullable(category.getParent()).ifPresent(cacheChildren::remove);
+		}
+		cacheNewest.clear();
+	}
+
 	public Stream<Article> flatten(Category start) {
 		return Stream.concat(getArticles(start), getChildren(start).map(Article::getCategory).flatMap(this::flatten)).distinct();
 	}
@@ -0,0 +1,114 @@
+package net.pawet.pawgen.component.render;
+
+import lombok.RequiredArgsConstructor;
+import net.pawet.pawgen.component.render.Renderer.ArticleContext;
+
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+import static java.util.Map.entry;
+
+/**
+ * Resolves template variable names ('../', 'parent.', 'func.' and field name) once, at template compile time.
+ * With forkSections navigation sections are returned as {@link Callable} to be rendered concurrently.
+ */
+@RequiredArgsConstructor
+final class BindingCompiler {
+
+	private static final String PARENT_PREFIX = "parent.";
+	private static final String FUNC_PREFIX = "func.";
+	private static final String LEVEL_PREFIX = "../";
+
+	private static final Map<String, Function<ArticleContext, Object>> FIELDS = Map.ofEntries(
+		entry("author", ArticleContext::getAuthor),
+		entry("category", ArticleContext::getCategory),
+		entry("date", ArticleContext::getDate),
+		entry("file", ArticleContext::getFile),
+		entry("fileExt", ArticleContext::getFileExt),
+		entry("lang", ArticleContext::getLang),
+		entry("source", ArticleContext::getSource),
+		entry("title", ArticleContext::getTitle),
+		entry("type", ArticleContext::getType),
+		entry("aliases", ArticleContext::getAliases),
+		entry("url", ArticleContext::getUrl),
+		entry("children", ArticleContext::getChildren),
+		entry("hasChildren", ArticleContext::hasChildren),
+		entry("otherLangArticle", ArticleContext::getOtherLangArticle),
+		entry("latest", ArticleContext::getLatest)
+	);
+
+	private static final Set<String> SECTIONS = Set.of("children", "otherLangArticle", "latest");
+
+	private final Function<String, ReadableByteChannel> resourceReader;
+	private final boolean forkSections;
+
+	CompiledBinding compile(String name) {
+		if (name == null) { // plain text codes have no variable
+			return new CompiledBinding(0, __ -> null);
+		}
+		int level = 0;
+		while (name.startsWith(LEVEL_PREFIX, level * LEVEL_PREFIX.length())) {
+			level++;
+		}
+		return new CompiledBinding(level, compileAccessor(name.substring(level * LEVEL_PREFIX.length())));
+	}
+
+	private Function<ArticleContext, Object> compileAccessor(String name) {
+		if (name.startsWith(FUNC_PREFIX)) {
+			return compileFunc(name.substring(FUNC_PREFIX.length()));
+		}
+		if (name.startsWith(PARENT_PREFIX)) {
+			var field = compileField(name.substring(PARENT_PREFIX.length()));
+			return context -> context.getParent().map(field).orElse(null);
+		}
+		return compileField(name);
+	}
+
+	private Function<ArticleContext, Object> compileField(String name) {
+		var field = FIELDS.getOrDefault(name, __ -> null);
+		if (forkSections && SECTIONS.contains(name)) { // mustache forks callable sections and joins them in order
+			return context -> (Callable<Object>) () -> field.apply(context);
+		}
+		return field;
+	}
+
+	private Function<ArticleContext, Object> compileFunc(String name) {
+		return switch (name) {
+			case "relativize" -> context -> (Function<String, CharSequence>) context::relativize;
+			case "embed" -> context -> (Function<String, CharSequence>) s -> TemplateFunctions.embed(path -> {
+				context.embeds(path); // tracked for incremental re-render
+				return resourceReader.apply(path);
+			}, s);
+			case "format" -> constant((Function<String, CharSequence>) TemplateFunctions::format);
+			default -> context -> {
+				throw new UnsupportedOperationException("unknown function: " + name + " in " + context);
+			};
+		};
+	}
+
+	private static Function<ArticleContext, Object> constant(Object value) {
+		return __ -> value;
+	}
+
+	record CompiledBinding(int level, Function<ArticleContext, Object> accessor) {
+
+		Object get(List<Object> scopes) {
+			int level = this.level;
+			for (int i = scopes.size() - 1; i >= 0; i--) {
+				if (scopes.get(i) instanceof ArticleContext context) {
+					if (level == 0) { // skip parent stack entries
+						return accessor.apply(context);
+					}
+					level--;
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
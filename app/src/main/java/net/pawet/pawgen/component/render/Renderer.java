@@ -12,7 +12,9 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import static java.time.ZoneOffset.UTC;
@@ -25,6 +27,8 @@ import static lombok.AccessLevel.PRIVATE;
 public class Renderer {
 
 	private final Set<Article> processedFiles = ConcurrentHashMap.newKeySet();
+	private final Map<String, Set<Article>> embeddedBy = new ConcurrentHashMap<>();
+	private final LongAdder navigationQueries = new LongAdder();
 	private final Templater templater;
 	private final Clock clock;
 	private final ArticleQuery queryService;
@@ -47,6 +51,30 @@ public class Renderer {
 		}
 	}
 
+	/**
+	 * Forgets processed articles, so they are rendered again on next request
+	 */
+	public List<Article> invalidate(Predicate<Article> filter) {
+		var articles = processedFiles.stream().filter(filter).toList();
+		articles.forEach(processedFiles::remove);
+		return articles;
+	}
+
+	public Stream<Article> getEmbedding(Predicate<String> embeddedPath) {
+		return embeddedBy.entrySet().stream()
+			.filter(e -> embeddedPath.test(e.getKey()))
+			.flatMap(e -> e.getValue().stream())
+			.distinct();
+	}
+
+	public long getNavigationQueryCount() {
+		return navigationQueries.sum();
+	}
+
+	public long getTemplateLookupCount() {
+		return templater.getLookupCount();
+	}
+
 	public Stream<Entry<String, String>> getAliases() {
 		return processedFiles.stream()
 			.flatMap(Renderer::getAliasPerArticleUrl)
@@ -65,6 +93,14 @@ public class Renderer {
 		@ToString.Include
 		@Getter
 		private final Article article;
+		@Getter(value = PRIVATE, lazy = true)
+		private final List<ArticleContext> otherLangContexts = queryOtherLangArticle();
+		@Getter(value = PRIVATE, lazy = true)
+		private final List<ArticleContext> childContexts = queryChildren();
+		@Getter(value = PRIVATE, lazy = true)
+		private final List<ArticleContext> latestContexts = queryLatest();
+		@Getter(value = PRIVATE, lazy = true)
+		private final Optional<ArticleContext> parentContext = queryParent();
 
 		@Synchronized
 		public void render() {
@@ -82,36 +118,63 @@ public class Renderer {
 		}
 
 		Iterator<ArticleContext> getOtherLangArticle() {
+			return getOtherLangContexts().iterator();
+		}
+
+		Iterator<ArticleContext> getChildren() {
+			return getChildContexts().iterator();
+		}
+
+		boolean hasChildren() {
+			return !getChildContexts().isEmpty();
+		}
+
+		Iterator<ArticleContext> getLatest() {
+			return getLatestContexts().iterator();
+		}
+
+		Optional<ArticleContext> getParent() {
+			return getParentContext();
+		}
+
+		private List<ArticleContext> queryOtherLangArticle() {
+			navigationQueries.increment();
 			return queryService.getArticles(article.getCategory())
 				.filter(not(article::isSameLang))
 				.map(Renderer.this::create)
 				.peek(ArticleContext::render)
-				.iterator();
-
+				.toList();
 		}
 
-		Iterator<ArticleContext> getChildren() {
+		private List<ArticleContext> queryChildren() {
+			navigationQueries.increment();
 			return queryService.getChildren(article.getCategory())
 				.map(Renderer.this::create)
 				.peek(ArticleContext::render)
-				.iterator();
+				.toList();
 		}
 
-		Iterator<ArticleContext> getLatest() {
+		private List<ArticleContext> queryLatest() {
+			navigationQueries.increment();
 			return queryService.getLast(article.getCategory(), clock.instant().atZone(UTC), 6)
 				.map(Renderer.this::create)
 				.peek(ArticleContext::render)
 				.limit(6)
-				.iterator();
+				.toList();
 		}
 
-		Optional<ArticleContext> getParent() {
+		private Optional<ArticleContext> queryParent() {
+			navigationQueries.increment();
 			return queryService.getParents(article.getCategory())
 				.map(Renderer.this::create)
 				.peek(ArticleContext::render)
 				.collect(collectingAndThen(toList(), this::chooseTheBestSuitableLang));
 		}
 
+		void embeds(String path) {
+			embeddedBy.computeIfAbsent(path, __ -> ConcurrentHashMap.newKeySet()).add(article);
+		}
+
 		String relativize(String value) {
 			return article.relativize(value);
 		}
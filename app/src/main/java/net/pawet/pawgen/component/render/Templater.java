@@ -1,22 +1,30 @@
 package net.pawet.pawgen.component.render;
 
 import com.github.mustachejava.*;
+import com.github.mustachejava.codes.ValueCode;
 import com.github.mustachejava.reflect.BaseObjectHandler;
 import com.github.mustachejava.util.Wrapper;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import net.pawet.pawgen.component.render.Renderer.ArticleContext;
+import net.pawet.pawgen.utils.StreamingCharSequence;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
-import java.util.List;
+import java.security.MessageDigest;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.Files.newBufferedReader;
+import static java.nio.file.Files.readAllBytes;
+import static java.util.Collections.unmodifiableSortedMap;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
 
 @Slf4j
 public class Templater {
@@ -24,115 +32,164 @@ public class Templater {
 	private static final String DEFAULT_EXT = ".mustache";
 	private static final String TEMPLATE_NAME = "index.html";
 
-	private final Mustache mustache;
-	private final Function<String, ReadableByteChannel> resourceReader;
+	private static final HexFormat HEX_FORMAT = HexFormat.of();
 
+	private final LongAdder lookups = new LongAdder();
+	private final Function<String, ReadableByteChannel> resourceReader;
+	private final Path templateDir;
+	private final ExecutorService executorService;
+	private final boolean concurrent;
+	private volatile Compiled compiled;
+
+	/**
+	 * @param executorService forks navigation sections when provided, renders sequentially when null
+	 */
 	public Templater(Function<String, ReadableByteChannel> resourceReader, Path templateDir, ExecutorService executorService) {
 		this.resourceReader = resourceReader;
-		MustacheResolver mustacheResolver = ((Function<String, Path>) templateDir::resolve).andThen(Templater::resolveTemplate)::apply;
-		var mf = new DefaultMustacheFactory(mustacheResolver);
+		this.templateDir = templateDir;
+		this.executorService = executorService;
+		this.concurrent = executorService != null;
+		this.compiled = compile();
+	}
+
+	/**
+	 * Renders and flushes the writer, waits for forked sections. Writer is closed by its owner.
+	 */
+	@SneakyThrows
+	public void render(Writer writer, Object... context) {
+		compiled.mustache().execute(writer, context).flush();
+	}
+
+	/**
+	 * Recompiles templates if template or any of its partials changed, change is detected by content hash of template and its partials.
+	 *
+	 * @return true if template was changed
+	 */
+	public synchronized boolean reload() {
+		var current = compiled;
+		String key = hash(current.dependencies().keySet().stream().collect(toMap(identity(), Templater::hashOrEmpty, (a, b) -> a, TreeMap::new)));
+		if (key.equals(current.key())) {
+			return false;
+		}
+		try {
+			compiled = compile();
+			log.info("Template reloaded, dependencies: {}", compiled.dependencies().keySet());
+			return true;
+		} catch (Exception e) {
+			log.error("Can't reload template, keeping previous one", e);
+			return false;
+		}
+	}
+
+	public Set<Path> getDependencies() {
+		return compiled.dependencies().keySet();
+	}
+
+	private Compiled compile() {
+		var dependencies = new TreeMap<Path, String>();
+		var mf = new PawgenMustacheFactory(name -> readTemplate(templateDir.resolve(name), dependencies));
 		mf.setObjectHandler(new PawgenObjectHandler());
 		mf.setExecutorService(executorService);
-		this.mustache = mf.compile(TEMPLATE_NAME + DEFAULT_EXT);
+		var mustache = mf.compile(TEMPLATE_NAME + DEFAULT_EXT);
+		return new Compiled(hash(dependencies), mustache, unmodifiableSortedMap(dependencies));
 	}
 
 	@SneakyThrows
-	private static Reader resolveTemplate(Path template) {
-		return newBufferedReader(template, UTF_8);
+	private static Reader readTemplate(Path template, Map<Path, String> dependencies) {
+		byte[] content = readAllBytes(template);
+		dependencies.put(template, sha1(content));
+		return new StringReader(new String(content, UTF_8));
 	}
 
-	public void render(Writer writer, Object... context) {
-		mustache.execute(writer, context);
+	private static String hash(SortedMap<Path, String> dependencies) {
+		var digest = sha1();
+		dependencies.forEach((path, hash) -> digest.update((path + ":" + hash + "\n").getBytes(UTF_8)));
+		return HEX_FORMAT.formatHex(digest.digest());
 	}
 
-	final class PawgenObjectHandler extends BaseObjectHandler {
-
-		@Override
-		public Wrapper find(String name, List<Object> scopes) {
-			return s -> findInternal(name, s);
+	private static String hashOrEmpty(Path path) {
+		try {
+			return sha1(readAllBytes(path));
+		} catch (IOException e) {
+			return "";
 		}
+	}
 
-		private static final String parentPrefix = "parent.";
-		private static final String funcPrefix = "func.";
-		private static final String prefix = "../";
+	private static String sha1(byte[] content) {
+		return HEX_FORMAT.formatHex(sha1().digest(content));
+	}
 
-		private Object findInternal(String name, List<Object> scopes) {
-			int level = calcParentLevel(name, prefix);
-			if (level > 0) {
-				name = name.substring(level * prefix.length());
-			}
-			for (int i = scopes.size() - 1; i >= 0; i--) {
-				Object scope = scopes.get(i);
-				if (scope instanceof ArticleContext) {
-					if (level == 0) { // skip parent stack entries
-						return findInternal(name, (ArticleContext) scope);
+	@SneakyThrows
+	private static MessageDigest sha1() {
+		return MessageDigest.getInstance("SHA-1");
+	}
+
+	public long getLookupCount() {
+		return lookups.sum();
+	}
+
+	private record Compiled(String key, Mustache mustache, SortedMap<Path, String> dependencies) {
+	}
+
+	static final class PawgenMustacheFactory extends DefaultMustacheFactory {
+
+		PawgenMustacheFactory(MustacheResolver mustacheResolver) {
+			super(mustacheResolver);
+		}
+
+		@Override
+		public MustacheVisitor createMustacheVisitor() {
+			return new DefaultMustacheVisitor(this) {
+				@Override
+				public void value(TemplateContext tc, String variable, boolean encoded) {
+					if (!encoded && ".".equals(variable)) {
+						list.add(new StreamingValueCode(tc, df, variable));
+						return;
 					}
-					level--;
+					super.value(tc, variable, encoded);
 				}
-			}
-			return null;
+			};
 		}
+	}
 
-		private int calcParentLevel(String name, String prefix) {
-			int count = 0, index = 0;
-			while ((index = name.indexOf(prefix, index)) != -1) {
-				index += prefix.length() - 1;
-				count++;
-			}
-			return count;
+	/**
+	 * Writes article content straight into the output instead of materializing it to string.
+	 */
+	static final class StreamingValueCode extends ValueCode {
+
+		StreamingValueCode(TemplateContext tc, DefaultMustacheFactory df, String variable) {
+			super(tc, df, variable, false);
 		}
 
-		private Object findInternal(String name, ArticleContext context) {
-			if (name.startsWith(funcPrefix)) {
-				return getFuncByName(name.substring(funcPrefix.length()), context);
-			}
-			if (name.startsWith(parentPrefix)) {
-				return context.getParent().map(ctx -> getByName(name.substring(parentPrefix.length()), ctx)).orElse(null);
+		@Override
+		public Writer execute(Writer writer, List<Object> scopes) {
+			if (get(scopes) instanceof StreamingCharSequence content) {
+				content.writeTo(writer);
+				return appendText(run(writer, scopes));
 			}
-			return getByName(name, context);
+			return super.execute(writer, scopes);
 		}
+	}
 
-		private Object getByName(String name, ArticleContext context) {
-			return switch (name) {
-				case "author" -> context.getAuthor();
-				case "category" -> context.getCategory();
-				case "date" -> context.getDate();
-				case "file" -> context.getFile();
-				case "fileExt" -> context.getFileExt();
-				case "lang" -> context.getLang();
-				case "source" -> context.getSource();
-				case "title" -> context.getTitle();
-				case "type" -> context.getType();
-				case "aliases" -> context.getAliases();
-				case "url" -> context.getUrl();
-				case "children" -> context.getChildren();
-				case "hasChildren" -> context.getChildren().hasNext();
-				case "otherLangArticle" -> context.getOtherLangArticle();
-				case "latest" -> context.getLatest();
-				default -> null;
-			};
-		}
+	final class PawgenObjectHandler extends BaseObjectHandler {
 
-		private Function<String, CharSequence> getFuncByName(String name, ArticleContext context) {
-			return switch (name) {
-				case "relativize" -> context::relativize;
-				case "embed" -> s -> TemplateFunctions.embed(resourceReader, s);
-				case "format" -> TemplateFunctions::format;
-				default -> throw new UnsupportedOperationException("unknown function: " + name + " in " + context);
-			};
-		}
+		private final BindingCompiler compiler = new BindingCompiler(resourceReader, concurrent);
 
+		@Override
+		public Wrapper find(String name, List<Object> scopes) {
+			return counted(compiler.compile(name))::get;
+		}
 
 		@Override
 		public Binding createBinding(final String name, TemplateContext tc, Code code) {
-			return new Binding() {
-				// We find the wrapper just once since only the name is needed
-				private final Wrapper wrapper = find(name, null);
+			// resolved once per template variable, no name parsing during rendering
+			return counted(compiler.compile(name));
+		}
 
-				@Override
-				public Object get(List<Object> scopes) {
-					return wrapper.call(scopes);
-				}
+		private Binding counted(BindingCompiler.CompiledBinding binding) {
+			return scopes -> {
+				lookups.increment();
+				return binding.get(scopes);
 			};
 		}
 	}
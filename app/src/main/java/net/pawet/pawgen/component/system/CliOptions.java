@@ -3,6 +3,9 @@ package net.pawet.pawgen.component.system;
 import build.Build;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
+import net.pawet.pawgen.deployer.CloudflarePagesDeployer;
+import net.pawet.pawgen.deployer.DeployState;
+import net.pawet.pawgen.deployer.NetlifyDeployer;
 
 import java.io.IOException;
 import java.io.StringWriter;
@@ -10,6 +13,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.function.Function;
@@ -30,6 +34,7 @@ public final class CliOptions {
 	private static final String TEMPLATES_DIR = "./templates";
 	private static final String STATIC_DIR = "./static";
 	public static final Pattern COMMA_SEPARATED = Pattern.compile(",");
+	private static final String SERVE_COMMAND = "serve";
 
 	@ToString.Include
 	@NonNull
@@ -54,12 +59,45 @@ public final class CliOptions {
 	@Singular
 	private final Set<String> hosts;
 	@ToString.Include
-	private final String deployerNames;
+	private final boolean templateConcurrent;
+	@ToString.Include
+	private final boolean outputSync;
+	@ToString.Include
+	private final boolean digestFileAttributes;
+	@ToString.Include
+	private final boolean digestAsync;
+	@ToString.Include
+	private final boolean watch;
+	@ToString.Include
+	private final boolean serve;
+	/**
+	 * Interface preview is served on, loopback only if not set
+	 */
+	@ToString.Include
+	private final String serveHost;
+	@Builder.Default
+	@ToString.Include
+	private final int servePort = 8080;
+	@ToString.Include
+	@Singular
+	private final List<String> deployerNames;
+	@ToString.Include
+	private final boolean deployParallel;
+	@ToString.Include
+	private final boolean deployPipeline;
+	@ToString.Include
+	private final URI deployStateUri;
+	@Builder.Default
+	@ToString.Include
+	private final Duration deployStateVerifyInterval = DeployState.DEFAULT_VERIFY_INTERVAL;
 	@ToString.Include
 	private final URI netlifyUrl;
 	private final String netlifyAccessToken;
 	@ToString.Include
 	private final String netlifySiteId;
+	@Builder.Default
+	@ToString.Include
+	private final int netlifyUploadConcurrency = NetlifyDeployer.DEFAULT_UPLOAD_CONCURRENCY;
 	@ToString.Include
 	private final URI cloudflarePagesUrl;
 	private final String cloudflarePagesToken;
@@ -67,6 +105,9 @@ public final class CliOptions {
 	private final String cloudflarePagesAccountId;
 	@ToString.Include
 	private final String cloudflarePagesProjectName;
+	@Builder.Default
+	@ToString.Include
+	private final int cloudflarePagesUploadConcurrency = CloudflarePagesDeployer.DEFAULT_UPLOAD_CONCURRENCY;
 
 	public static final String USER_HOME = System.getProperty("user.home");
 
@@ -93,15 +134,20 @@ public final class CliOptions {
 				var optionsBuilder = CliOptions.builder();
 				var propertyProvider = getConfigFilePropertyProvider(args);
 				parseConfigFile(propertyProvider, optionsBuilder);
-				parseDirOpts(args.stream().filter(not(isConfigFileName())), optionsBuilder);
+				optionsBuilder.watch(args.contains("--watch"));
+				boolean serve = !args.isEmpty() && SERVE_COMMAND.equals(args.get(0));
+				optionsBuilder.serve(serve);
+				parseDirOpts(args.stream().skip(serve ? 1 : 0).filter(not(isConfigFileName())).filter(not(arg -> arg.startsWith("--"))), optionsBuilder);
 				return optionsBuilder.build();
 			}
 		} catch (Throwable e) {
 			log.error("Error while setup config", e);
 		}
 		String help = """
-			Usage: pawgen contentDir [outputDir:%s] [templatesDir:%s] [staticDir:%s] [path_to/config.properties] [-h|--help] [-v|--version]
+			Usage: pawgen [serve] contentDir [outputDir:%s] [templatesDir:%s] [staticDir:%s] [path_to/config.properties] [--watch] [-h|--help] [-v|--version]
 			If path to config.properties is provided than config.properties in app dir is ignored
+			With --watch content, templates and static dirs are watched and changed articles are rendered again
+			With serve rendered site is served for preview on serve.host (loopback by default) and serve.port, changes are rendered as with --watch
 			Config example:
 			%s""".formatted(OUTPUT_DIR, TEMPLATES_DIR, STATIC_DIR, serializeAsPropertyFile(getDefaultConfig()));
 		throw new Throwable(help);
@@ -148,8 +194,41 @@ public final class CliOptions {
 			.filter(Objects::nonNull)
 			.filter(not(String::isBlank))
 			.forEach(optionsBuilder::host);
-		propertyProvider.apply("deployers")
-			.ifPresent(optionsBuilder::deployerNames);
+		propertyProvider.apply("template.concurrent")
+			.map(Boolean::parseBoolean)
+			.ifPresent(optionsBuilder::templateConcurrent);
+		propertyProvider.apply("output.sync")
+			.map(Boolean::parseBoolean)
+			.ifPresent(optionsBuilder::outputSync);
+		propertyProvider.apply("digest.fileAttributes")
+			.map(Boolean::parseBoolean)
+			.ifPresent(optionsBuilder::digestFileAttributes);
+		propertyProvider.apply("digest.async")
+			.map(Boolean::parseBoolean)
+			.ifPresent(optionsBuilder::digestAsync);
+		propertyProvider.apply("serve.host")
+			.filter(not(String::isBlank))
+			.ifPresent(optionsBuilder::serveHost);
+		propertyProvider.apply("serve.port")
+			.map(Integer::parseInt)
+			.ifPresent(optionsBuilder::servePort);
+		propertyProvider.apply("deployers").stream()
+			.flatMap(COMMA_SEPARATED::splitAsStream)
+			.map(String::trim)
+			.filter(not(String::isBlank))
+			.forEach(optionsBuilder::deployerName);
+		propertyProvider.apply("deploy.parallel")
+			.map(Boolean::parseBoolean)
+			.ifPresent(optionsBuilder::deployParallel);
+		propertyProvider.apply("deploy.pipeline")
+			.map(Boolean::parseBoolean)
+			.ifPresent(optionsBuilder::deployPipeline);
+		propertyProvider.apply("deploy.stateDir")
+			.flatMap(CliOptions::createUriOpt)
+			.ifPresent(optionsBuilder::deployStateUri);
+		propertyProvider.apply("deploy.stateVerifyInterval")
+			.map(Duration::parse)
+			.ifPresent(optionsBuilder::deployStateVerifyInterval);
 		propertyProvider.apply("netlify.url")
 			.map(URI::create)
 			.map(CliOptions::addSlashToResource)
@@ -158,6 +237,9 @@ public final class CliOptions {
 			.ifPresent(optionsBuilder::netlifyAccessToken);
 		propertyProvider.apply("netlify.siteAppId")
 			.ifPresent(optionsBuilder::netlifySiteId);
+		propertyProvider.apply("netlify.uploadConcurrency")
+			.map(Integer::parseInt)
+			.ifPresent(optionsBuilder::netlifyUploadConcurrency);
 		propertyProvider.apply("cloudflarepages.url")
 			.map(URI::create)
 			.map(CliOptions::addSlashToResource)
@@ -168,6 +250,9 @@ public final class CliOptions {
 			.ifPresent(optionsBuilder::cloudflarePagesAccountId);
 		propertyProvider.apply("cloudflarepages.projectName")
 			.ifPresent(optionsBuilder::cloudflarePagesProjectName);
+		propertyProvider.apply("cloudflarepages.uploadConcurrency")
+			.map(Integer::parseInt)
+			.ifPresent(optionsBuilder::cloudflarePagesUploadConcurrency);
 	}
 
 	private static Function<String, Optional<String>> getConfigFilePropertyProvider(Collection<String> args) {
@@ -197,7 +282,17 @@ public final class CliOptions {
 		config.put("outputDir", "zip:/%USER_HOME%/Desktop/pawgen/site.zip?create,true&useTempFile,true&noCompression,false");
 		config.put("templatesDir", "./templates");
 		config.put("hosts", "pawgen.mydomain,test.pawgen.mydomain");
-		config.put("deployer", "NETLIFY");
+		config.put("template.concurrent", "false");
+		config.put("output.sync", "false");
+		config.put("digest.fileAttributes", "false");
+		config.put("digest.async", "false");
+		config.put("serve.host", "localhost");
+		config.put("serve.port", "8080");
+		config.put("deployers", "NETLIFY");
+		config.put("deploy.pipeline", "false");
+		config.put("deploy.parallel", "false");
+		config.put("deploy.stateDir", "%USER_HOME%/.pawgen/deploy");
+		config.put("deploy.stateVerifyInterval", "P1D");
 //#https://app.netlify.com/user/applications#personal-access-tokens
 		config.put("netlify.accessToken", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA");
 //#https://app.netlify.com/sites/pawet/settings/general#site-details
@@ -0,0 +1,134 @@
+package net.pawet.pawgen.component.system;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Watches dir trees (possibly on different {@link FileSystem}s) and passes changed paths in debounced batches.
+ */
+@Slf4j
+public final class DirWatcher implements AutoCloseable {
+
+	private final BlockingQueue<Path> changes = new LinkedBlockingQueue<>();
+	private final Map<FileSystem, WatchService> services = new ConcurrentHashMap<>();
+	private final Map<WatchKey, Path> dirs = new ConcurrentHashMap<>();
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private volatile boolean closed;
+
+	public static DirWatcher create(Collection<Path> dirs) {
+		var watcher = new DirWatcher();
+		dirs.forEach(watcher::registerTree);
+		return watcher;
+	}
+
+	private void registerTree(Path dir) {
+		try (var tree = Files.walk(dir)) {
+			tree.filter(Files::isDirectory).forEach(this::register);
+		} catch (IOException e) {
+			log.warn("Can't watch {}", dir, e);
+		}
+	}
+
+	private void register(Path dir) {
+		try {
+			var service = services.computeIfAbsent(dir.getFileSystem(), this::newWatchService);
+			dirs.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+		} catch (UnsupportedOperationException | IOException e) { // e.g. zip fs
+			log.warn("Can't watch {}", dir, e);
+		}
+	}
+
+	@SneakyThrows
+	private WatchService newWatchService(FileSystem fileSystem) {
+		var service = fileSystem.newWatchService();
+		executor.execute(() -> poll(service));
+		return service;
+	}
+
+	private void poll(WatchService service) {
+		try {
+			while (!closed) {
+				var key = service.take();
+				var dir = dirs.get(key);
+				for (var event : key.pollEvents()) {
+					handle(dir, event);
+				}
+				if (!key.reset()) {
+					dirs.remove(key);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			log.trace("Watching stopped", e);
+		}
+	}
+
+	private void handle(Path dir, WatchEvent<?> event) {
+		if (dir == null) {
+			return;
+		}
+		if (event.kind() == OVERFLOW) {
+			changes.add(dir);
+			return;
+		}
+		var path = dir.resolve((Path) event.context());
+		if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+			registerTree(path);
+			try (var files = Files.walk(path)) {
+				files.forEach(changes::add);
+			} catch (IOException e) {
+				log.warn("Can't read {}", path, e);
+			}
+			return;
+		}
+		changes.add(path);
+	}
+
+	/**
+	 * Blocks till closed, passes changes once no new change comes within quietPeriod.
+	 */
+	public void run(Duration quietPeriod, Consumer<Set<Path>> listener) throws InterruptedException {
+		while (!closed) {
+			var first = changes.poll(quietPeriod.toMillis(), MILLISECONDS);
+			if (first == null) {
+				continue;
+			}
+			var batch = new LinkedHashSet<Path>();
+			batch.add(first);
+			for (Path path; (path = changes.poll(quietPeriod.toMillis(), MILLISECONDS)) != null; ) {
+				batch.add(path);
+			}
+			listener.accept(batch);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (var service : services.values()) {
+			try {
+				service.close();
+			} catch (IOException e) {
+				log.debug("Can't close watch service", e);
+			}
+		}
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,176 @@
+package net.pawet.pawgen.component.system;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import net.pawet.pawgen.component.system.storage.OutputFile;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static lombok.AccessLevel.PRIVATE;
+import static net.pawet.pawgen.component.system.storage.Storage.REDIRECTS_FILE;
+
+/**
+ * Serves rendered output from memory for local preview, honours _redirects and revalidates with sha1 ETags.
+ */
+@Slf4j
+@RequiredArgsConstructor(access = PRIVATE)
+public final class PreviewServer implements AutoCloseable {
+
+	private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+	private static final String INDEX_FILE = "index.html";
+	private static final int DEFAULT_REDIRECT_STATUS = 301;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Function<String, Optional<OutputFile>> outputs;
+	private volatile Redirects redirects = new Redirects(null, Map.of());
+
+	@SneakyThrows
+	public static PreviewServer start(InetSocketAddress address, Function<String, Optional<OutputFile>> outputs) {
+		var executor = Executors.newVirtualThreadPerTaskExecutor();
+		var server = HttpServer.create(address, 0);
+		var previewServer = new PreviewServer(server, executor, outputs);
+		server.createContext("/", previewServer::handle);
+		server.setExecutor(executor);
+		server.start();
+		return previewServer;
+	}
+
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			var method = exchange.getRequestMethod();
+			boolean head = "HEAD".equals(method);
+			if (!head && !"GET".equals(method)) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			var requested = exchange.getRequestURI().getPath();
+			var redirects = getRedirects();
+			var redirect = Optional.ofNullable(redirects.get(requested)).orElseGet(() -> redirects.get(indexOf(requested)));
+			var path = requested;
+			int status = 200;
+			if (redirect != null) {
+				if (redirect.isRedirect()) {
+					exchange.getResponseHeaders().set("Location", redirect.to());
+					exchange.sendResponseHeaders(redirect.status(), -1);
+					return;
+				}
+				path = redirect.to(); // rewrite, target is served with status of the rule
+				status = redirect.status();
+			}
+			path = indexOf(path);
+			var output = outputs.apply(path).orElse(null);
+			if (output == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			var etag = '"' + output.sha1() + '"';
+			var headers = exchange.getResponseHeaders();
+			headers.set("ETag", etag);
+			headers.set("Cache-Control", "no-cache");
+			if (status == 200 && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			headers.set("Content-Type", contentType(path));
+			if (head) {
+				headers.set("Content-Length", String.valueOf(output.content().length));
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(status, output.content().length == 0 ? -1 : output.content().length);
+			exchange.getResponseBody().write(output.content());
+		} catch (Exception e) {
+			log.error("Can't serve {}", exchange.getRequestURI(), e);
+			if (exchange.getResponseCode() < 0) { // headers not sent yet
+				exchange.sendResponseHeaders(500, -1);
+			}
+		}
+	}
+
+	/**
+	 * Dir is served with its index file, as hosting does
+	 */
+	private static String indexOf(String path) {
+		return path.endsWith("/") ? path + INDEX_FILE : path;
+	}
+
+	private static String contentType(String path) {
+		var type = URLConnection.guessContentTypeFromName(path);
+		if (type == null) {
+			return "application/octet-stream";
+		}
+		return type.startsWith("text/") ? type + "; charset=utf-8" : type;
+	}
+
+	private Map<String, Redirect> getRedirects() {
+		var file = outputs.apply('/' + REDIRECTS_FILE).orElse(null);
+		if (file == null) {
+			return Map.of();
+		}
+		var current = redirects;
+		if (!file.sha1().equals(current.sha1())) {
+			current = new Redirects(file.sha1(), parseRedirects(new String(file.content(), UTF_8)));
+			redirects = current;
+		}
+		return current.byPath();
+	}
+
+	/**
+	 * Rule is 'from to [status]', status may be forced with '!' suffix (e.g. 302!), it is 301 if missing
+	 */
+	private static Map<String, Redirect> parseRedirects(String content) {
+		var byPath = new HashMap<String, Redirect>();
+		for (String line : content.split("\n")) {
+			var parts = WHITESPACES.split(line.strip());
+			if (parts.length < 2 || parts[0].startsWith("#")) {
+				continue;
+			}
+			try {
+				int status = parts.length > 2 && !parts[2].startsWith("#") ? Integer.parseInt(parts[2].replace("!", "")) : DEFAULT_REDIRECT_STATUS;
+				byPath.putIfAbsent(URI.create(parts[0]).getPath(), new Redirect(parts[1], status));
+			} catch (IllegalArgumentException e) {
+				log.debug("Skipping redirect '{}'", line, e);
+			}
+		}
+		return byPath;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private record Redirects(String sha1, Map<String, Redirect> byPath) {
+	}
+
+	/**
+	 * Status other than 3xx rewrites, target is served from the requested path
+	 */
+	private record Redirect(String to, int status) {
+
+		boolean isRedirect() {
+			return status / 100 == 3;
+		}
+	}
+
+}
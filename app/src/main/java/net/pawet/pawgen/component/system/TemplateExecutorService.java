@@ -0,0 +1,82 @@
+package net.pawet.pawgen.component.system;
+
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes forked template sections, kept apart from {@link ProcessingExecutorService} as sections are joined by template itself.
+ */
+public final class TemplateExecutorService extends AbstractExecutorService {
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final LongAdder tasks = new LongAdder();
+	private final LongAdder busyNanos = new LongAdder();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger peak = new AtomicInteger();
+
+	@Override
+	public void execute(@NonNull Runnable command) {
+		tasks.increment();
+		executor.execute(() -> {
+			peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+			long start = System.nanoTime();
+			try {
+				command.run();
+			} finally {
+				busyNanos.add(System.nanoTime() - start);
+				running.decrementAndGet();
+			}
+		});
+	}
+
+	public long getTaskCount() {
+		return tasks.sum();
+	}
+
+	public Duration getBusyTime() {
+		return Duration.ofNanos(busyNanos.sum());
+	}
+
+	public int getPeakConcurrency() {
+		return peak.get();
+	}
+
+	@Override
+	public String toString() {
+		return "sections: %d, busy: %dms, peak concurrency: %d".formatted(getTaskCount(), getBusyTime().toMillis(), getPeakConcurrency());
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return executor.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return executor.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+}
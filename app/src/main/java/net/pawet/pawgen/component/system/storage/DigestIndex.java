@@ -0,0 +1,213 @@
+package net.pawet.pawgen.component.system.storage;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only digest index of output dir: path -> digests, size and modification time.
+ * Loaded with a single read, records of the build are appended at the end,
+ * last record of path wins, record without digests removes the path.
+ * Entries of previous build are trusted only if file size and modification time still match.
+ */
+@Slf4j
+final class DigestIndex {
+
+	static final String FILE_NAME = ".pawgen-digests";
+	private static final int MAGIC = 0x50474431; // PGD1
+	private static final int COMPACT_SLACK = 1024;
+
+	private final Map<Path, Meta> entries = new ConcurrentHashMap<>();
+	private final Set<Path> dirty = ConcurrentHashMap.newKeySet();
+	private final Path dir;
+	private final Path file;
+	private int persistedRecords;
+	private boolean broken;
+
+	private DigestIndex(Path dir) {
+		this.dir = dir;
+		this.file = dir.resolve(FILE_NAME);
+	}
+
+	static DigestIndex load(Path dir) {
+		var index = new DigestIndex(dir);
+		if (Files.isRegularFile(index.file)) {
+			index.read();
+		}
+		return index;
+	}
+
+	private void read() {
+		try (var channel = Files.newByteChannel(file, READ)) {
+			var buffer = ByteBuffer.allocate((int) channel.size()); // not mapped, mapped file can't be replaced on windows
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+			buffer.flip();
+			if (buffer.remaining() < Integer.BYTES || buffer.getInt() != MAGIC) {
+				log.warn("Unknown digest index format {}, it will be rewritten", file);
+				broken = true;
+				return;
+			}
+			while (buffer.hasRemaining()) {
+				readRecord(buffer);
+				persistedRecords++;
+			}
+			log.debug("Loaded {} digests from {} records", entries.size(), persistedRecords);
+		} catch (IOException | BufferUnderflowException e) {
+			log.warn("Digest index {} is broken, it will be rewritten", file, e);
+			broken = true;
+		}
+	}
+
+	private void readRecord(ByteBuffer buffer) {
+		var path = dir.resolve(new String(readBytes(buffer, buffer.getShort() & 0xFFFF), UTF_8));
+		int count = buffer.get() & 0xFF;
+		if (count == 0) {
+			entries.remove(path);
+			return;
+		}
+		var digests = new HashMap<String, byte[]>(count);
+		for (int i = 0; i < count; i++) {
+			var key = new String(readBytes(buffer, buffer.get() & 0xFF), UTF_8);
+			digests.put(key, readBytes(buffer, buffer.get() & 0xFF));
+		}
+		entries.put(path, new Meta(digests, buffer.getLong(), buffer.getLong()));
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer, int length) {
+		var bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	Optional<byte[]> get(Path target, String key) {
+		var meta = entries.get(target);
+		if (meta == null) {
+			return Optional.empty();
+		}
+		if (meta.isPersisted()) {
+			if (!meta.matches(target)) {
+				log.trace("Stale digest for {}", target);
+				entries.remove(target, meta);
+				dirty.add(target);
+				return Optional.empty();
+			}
+			entries.replace(target, meta, new Meta(meta.digests(), -1, -1));
+		}
+		return Optional.ofNullable(meta.digests().get(key));
+	}
+
+	void put(Path target, String key, byte[] value) {
+		entries.compute(target, (__, meta) -> {
+			var current = meta == null || meta.isPersisted() ? new Meta(new ConcurrentHashMap<>(), -1, -1) : meta;
+			var prev = current.digests().put(key, value);
+			assert prev == null : "Entry already exists with digest " + target;
+			return current;
+		});
+		dirty.add(target);
+	}
+
+	void remove(Path target) {
+		entries.remove(target);
+		dirty.add(target);
+	}
+
+	void clear() {
+		entries.clear();
+		dirty.clear();
+		persistedRecords = 0;
+	}
+
+	/**
+	 * Appends records changed in this build, rewrites index when it is broken or mostly stale records
+	 */
+	@SneakyThrows
+	synchronized void flush() {
+		boolean rewrite = broken || persistedRecords + dirty.size() > 2 * entries.size() + COMPACT_SLACK;
+		if (dirty.isEmpty() && !rewrite) {
+			return;
+		}
+		var paths = rewrite ? Set.copyOf(entries.keySet()) : Set.copyOf(dirty);
+		dirty.removeAll(paths);
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		if (rewrite || Files.notExists(file)) {
+			out.writeInt(MAGIC);
+		}
+		for (Path path : paths) {
+			writeRecord(out, path, entries.get(path));
+		}
+		Files.createDirectories(dir);
+		if (rewrite) {
+			var tmp = file.resolveSibling(FILE_NAME + ".tmp");
+			Files.write(tmp, bytes.toByteArray(), CREATE, TRUNCATE_EXISTING, WRITE);
+			Files.move(tmp, file, REPLACE_EXISTING);
+			persistedRecords = paths.size();
+			broken = false;
+		} else {
+			Files.write(file, bytes.toByteArray(), CREATE, APPEND, WRITE);
+			persistedRecords += paths.size();
+		}
+		log.debug("Stored {} digest records{}", paths.size(), rewrite ? ", index rewritten" : "");
+	}
+
+	private void writeRecord(DataOutputStream out, Path path, Meta meta) throws IOException {
+		var name = dir.relativize(path).toString().getBytes(UTF_8);
+		out.writeShort(name.length);
+		out.write(name);
+		var attributes = meta == null || meta.isPersisted() ? null : readAttributes(path);
+		if (meta == null || (!meta.isPersisted() && attributes == null)) { // tombstone
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(meta.digests().size());
+		for (var digest : meta.digests().entrySet()) {
+			var key = digest.getKey().getBytes(UTF_8);
+			out.writeByte(key.length);
+			out.write(key);
+			out.writeByte(digest.getValue().length);
+			out.write(digest.getValue());
+		}
+		out.writeLong(attributes == null ? meta.size() : attributes.size());
+		out.writeLong(attributes == null ? meta.modified() : attributes.lastModifiedTime().toMillis());
+	}
+
+	private static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param size     file size recorded by previous build or -1 for digest of this build
+	 * @param modified file modification time in millis recorded by previous build
+	 */
+	private record Meta(Map<String, byte[]> digests, long size, long modified) {
+
+		boolean isPersisted() {
+			return size >= 0;
+		}
+
+		boolean matches(Path target) {
+			var attributes = readAttributes(target);
+			return attributes != null && attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+		}
+
+	}
+
+}
@@ -3,19 +3,27 @@ package net.pawet.pawgen.component.system.storage;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import net.pawet.pawgen.deployer.digest.CfDigestHandler;
-import net.pawet.pawgen.deployer.digest.Sha1DigestHandler;
+import net.pawet.pawgen.deployer.digest.FusedDigestHandler;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.util.Map.entry;
 import static java.util.stream.Collectors.toMap;
 
@@ -27,23 +35,211 @@ final class DigestService {
 	private static final String CFDIGEST_ATTR_NAME = "cfdigest";
 	private static final HexFormat HEX_FORMAT = HexFormat.of();
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Map<Path, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
 	private final MetaService metaService;
+	/**
+	 * Digest stage, files are hashed once closed instead of on the write path. Null for digesting while writing.
+	 */
+	private final ExecutorService digestExecutor;
+	private volatile Consumer<Path> digestedListener;
+
+	static ExecutorService newDigestExecutor() {
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+			var thread = new Thread(r, "digest");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Listener is told about every file with digests stored, null for none
+	 */
+	void onDigested(Consumer<Path> listener) {
+		this.digestedListener = listener;
+	}
+
+	private void digested(Path target) {
+		var listener = digestedListener;
+		if (listener != null) {
+			listener.accept(target);
+		}
+	}
 
-	@SneakyThrows
 	public WritableByteChannel write(Path path, WritableByteChannel writableChannel) {
-		return new DigestWritableByteChannel(writableChannel,
-			new Sha1DigestHandler(digest -> metaService.store(path, SHA1_ATTR_NAME, digest)),
-			new CfDigestHandler(path, digest -> metaService.store(path, CFDIGEST_ATTR_NAME, digest))
+		if (digestExecutor != null) {
+			return committing(path, writableChannel, () -> digest(path, storingHandler(path)));
+		}
+		return committing(path, new DigestWritableByteChannel(writableChannel, storingHandler(path)), () -> {});
+	}
+
+	private FusedDigestHandler storingHandler(Path path) {
+		return new FusedDigestHandler(path,
+			digest -> metaService.store(path, SHA1_ATTR_NAME, digest),
+			digest -> metaService.store(path, CFDIGEST_ATTR_NAME, digest)
 		);
 	}
 
+	/**
+	 * Target is pending from open till its digests are stored, so reader of the target waits for the file being written.
+	 * Commit runs once channel is closed, on digest stage if there is one.
+	 */
+	private WritableByteChannel committing(Path target, WritableByteChannel channel, Runnable commit) {
+		var stored = new CompletableFuture<Void>();
+		pending.put(target, stored);
+		return new CommittingByteChannel(channel, () -> {
+			if (digestExecutor != null) {
+				submit(target, stored, commit);
+				return;
+			}
+			try {
+				commit.run();
+			} finally {
+				release(target, stored);
+			}
+			digested(target);
+		}, () -> release(target, stored));
+	}
+
+	private void submit(Path target, CompletableFuture<Void> stored, Runnable commit) {
+		CompletableFuture.runAsync(commit, digestExecutor).whenComplete((__, e) -> {
+			if (e != null) {
+				log.error("Can't digest {}", target, e);
+				stored.completeExceptionally(e); // failed future stays pending, so awaiting it rethrows the cause
+				return;
+			}
+			release(target, stored);
+			digested(target);
+		});
+	}
+
+	private void release(Path target, CompletableFuture<Void> stored) {
+		pending.remove(target, stored);
+		stored.complete(null);
+	}
+
+	/**
+	 * Reads into heap buffer, mapped file couldn't be moved or deleted on windows till the mapping is collected
+	 */
+	@SneakyThrows
+	private static void digest(Path file, FusedDigestHandler handler) {
+		try (var channel = Files.newByteChannel(file, READ)) {
+			var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buffer.clear()) >= 0) {
+				handler.accept(buffer.flip());
+			}
+		}
+		handler.close();
+	}
+
+	byte[] sha1(Path file) {
+		var sha1 = new byte[1][];
+		digest(file, new FusedDigestHandler(file, digest -> sha1[0] = digest, __ -> {}));
+		return sha1[0];
+	}
+
+	/**
+	 * Copies digests of file to its hard link, digests are equal as long as file extension is
+	 */
+	void copy(Path from, Path to) {
+		for (String key : List.of(SHA1_ATTR_NAME, CFDIGEST_ATTR_NAME)) {
+			metaService.store(to, key, loadDigest(from, key));
+		}
+		digested(to);
+	}
+
+	/**
+	 * Waits for outstanding digests
+	 */
+	public void await() {
+		pending.values().forEach(CompletableFuture::join);
+	}
+
+	public void await(Path target) {
+		var future = pending.get(target);
+		if (future != null) {
+			future.join();
+		}
+	}
+
 	public Map<String, String> load(Path target) {
 		return Stream.of(SHA1_ATTR_NAME, CFDIGEST_ATTR_NAME)
 			.map(attrName -> entry(attrName, formatHex(loadDigest(target, attrName))))
 			.collect(toMap(Entry::getKey, Entry::getValue));
 	}
 
+	/**
+	 * Digests content written to staged file, replaces target only if sha1 differs
+	 */
+	public WritableByteChannel writeStaged(Path target, Path staged, WritableByteChannel stagedChannel) {
+		var digests = new ConcurrentHashMap<String, byte[]>();
+		var handler = new FusedDigestHandler(target,
+			digest -> digests.put(SHA1_ATTR_NAME, digest),
+			digest -> digests.put(CFDIGEST_ATTR_NAME, digest)
+		);
+		if (digestExecutor != null) {
+			return committing(target, stagedChannel, () -> {
+				digest(staged, handler);
+				commit(target, staged, digests);
+			});
+		}
+		return committing(target, new DigestWritableByteChannel(stagedChannel, handler), () -> commit(target, staged, digests));
+	}
+
+	@SneakyThrows
+	private void commit(Path target, Path staged, Map<String, byte[]> digests) {
+		if (Arrays.equals(digests.get(SHA1_ATTR_NAME), metaService.load(target, SHA1_ATTR_NAME).orElse(null))) {
+			log.trace("Unchanged {}", target);
+			Files.delete(staged);
+			return;
+		}
+		removeMeta(target);
+		Files.move(staged, target, REPLACE_EXISTING);
+		digests.forEach((key, digest) -> metaService.store(target, key, digest));
+	}
+
+	public String loadSha1(Path target) {
+		return formatHex(loadDigest(target, SHA1_ATTR_NAME));
+	}
+
+	public void remove(Path target) {
+		var future = pending.remove(target);
+		if (future != null) {
+			future.exceptionally(e -> null).join(); // failure doesn't matter for removed file
+		}
+		removeMeta(target);
+	}
+
+	private void removeMeta(Path target) {
+		metaService.remove(target);
+		metaService.removeFileAttribute(target, SHA1_ATTR_NAME);
+		metaService.removeFileAttribute(target, CFDIGEST_ATTR_NAME);
+	}
+
+	public void flush() {
+		await();
+		metaService.flush();
+	}
+
+	public void clear() {
+		pending.values().forEach(future -> future.exceptionally(e -> null).join());
+		pending.clear();
+		metaService.clear();
+	}
+
+	public void close() {
+		if (digestExecutor != null) {
+			digestExecutor.shutdown();
+		}
+	}
+
+	byte[] loadSha1Digest(Path target) {
+		return loadDigest(target, SHA1_ATTR_NAME);
+	}
+
 	byte[] loadDigest(Path target, String attrName) {
+		await(target);
 		return metaService.load(target, attrName).orElseThrow(() -> new IllegalStateException("Can't find attribute '" + attrName + "' for " + target));
 	}
 
@@ -53,13 +249,13 @@ final class DigestService {
 
 }
 
-record DigestWritableByteChannel<T extends Consumer<ByteBuffer> & AutoCloseable>(WritableByteChannel channel, T... digestHandlers) implements WritableByteChannel {
+/**
+ * Commits written file once channel is closed, aborts if closing fails
+ */
+record CommittingByteChannel(WritableByteChannel channel, Runnable commit, Runnable abort) implements WritableByteChannel {
 
 	@Override
 	public int write(ByteBuffer src) throws IOException {
-		for (var digestHandler : digestHandlers) {
-			digestHandler.accept(src.duplicate());
-		}
 		return channel.write(src);
 	}
 
@@ -68,17 +264,45 @@ record DigestWritableByteChannel<T extends Consumer<ByteBuffer> & AutoCloseable>
 		return channel.isOpen();
 	}
 
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} catch (IOException | RuntimeException e) {
+			abort.run();
+			throw e;
+		}
+		commit.run();
+	}
+
+}
+
+/**
+ * Digests bytes once they are written, so partially written buffer is not digested twice
+ */
+record DigestWritableByteChannel(WritableByteChannel channel, FusedDigestHandler digestHandler) implements WritableByteChannel {
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		int position = src.position();
+		int written = channel.write(src);
+		if (written > 0) {
+			digestHandler.update(src, position, written);
+		}
+		return written;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
 	@Override
 	public void close() throws IOException {
 		try {
 			channel.close();
 		} finally {
-			for (var digestHandler : digestHandlers) {
-				try {
-					digestHandler.close();
-				} catch (Exception ignore) {
-				}
-			}
+			digestHandler.close();
 		}
 	}
 
@@ -1,5 +1,6 @@
 package net.pawet.pawgen.component.system.storage;
 
+import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -9,25 +10,32 @@ import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.UserDefinedFileAttributeView;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static java.nio.file.Files.getFileAttributeView;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.util.Optional.ofNullable;
 
+/**
+ * Keeps digests in {@link DigestIndex}, optionally also in file attributes or hidden sidecar files.
+ */
 @Slf4j
+@RequiredArgsConstructor
 final class MetaService {
 
-	private final Map<Entry<Path, String>, byte[]> cache = new ConcurrentHashMap<>();
+	private final DigestIndex index;
+	private final boolean fileAttributes;
 
-	@SneakyThrows
 	public void store(Path target, String key, byte[] value) {
-		var prev = cache.put(Map.entry(target, key), value);
-		assert prev == null : "Entry already exists with digest " + target;
+		index.put(target, key, value);
+		if (fileAttributes) {
+			storeFileAttribute(target, key, value);
+		}
+	}
+
+	@SneakyThrows
+	private void storeFileAttribute(Path target, String key, byte[] value) {
 		log.trace("Store to file attribute '{}' for {}", target, key);
 		var attributeView = getFileAttributeView(target, UserDefinedFileAttributeView.class);
 		if (attributeView != null) {
@@ -43,12 +51,37 @@ final class MetaService {
 		Files.write(metaFile, value, TRUNCATE_EXISTING, CREATE);
 	}
 
-	@SneakyThrows
 	public Optional<byte[]> load(Path target, String key) {
-		return Optional.of(Map.entry(target, key))
-			.map(cache::get)
-			.or(() -> readAttribute(target, key))
-			.or(() -> readAttrFromFile(target, key));
+		var digest = index.get(target, key);
+		if (digest.isPresent() || !fileAttributes) {
+			return digest;
+		}
+		return readAttribute(target, key).or(() -> readAttrFromFile(target, key));
+	}
+
+	/**
+	 * Removes all values of the target from index.
+	 */
+	public void remove(Path target) {
+		index.remove(target);
+	}
+
+	/**
+	 * Removes value file of the key, written when file attribute can't be.
+	 */
+	@SneakyThrows
+	public void removeFileAttribute(Path target, String key) {
+		if (fileAttributes) {
+			Files.deleteIfExists(resolveMetaFile(target, key));
+		}
+	}
+
+	public void flush() {
+		index.flush();
+	}
+
+	public void clear() {
+		index.clear();
 	}
 
 	private Optional<byte[]> readAttrFromFile(Path target, String key) {
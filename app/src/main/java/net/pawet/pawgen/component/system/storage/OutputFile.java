@@ -0,0 +1,7 @@
+package net.pawet.pawgen.component.system.storage;
+
+/**
+ * Rendered output kept in memory, sha1 is hex encoded.
+ */
+public record OutputFile(byte[] content, String sha1) {
+}
@@ -0,0 +1,116 @@
+package net.pawet.pawgen.component.system.storage;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * Walks dir tree with fork/join task per subdirectory, no global path list or sort needed.
+ * Pool is bigger than cpu count as tasks mostly wait for file system metadata I/O.
+ */
+final class ParallelTreeWalker {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * Visits files and then, once its subtree is done, dir itself. Root dir is not visited.
+	 * IOException thrown by a visitor (sneaky or not) stops the walk as {@link UncheckedIOException}.
+	 */
+	static void walkBottomUp(Path root, Consumer<Path> onFile, Consumer<Path> onDirDone) {
+		POOL.invoke(new BottomUpTask(root, true, onFile, onDirDone));
+	}
+
+	static List<Path> find(Path root, BiPredicate<Path, BasicFileAttributes> filter) {
+		return POOL.invoke(new FindTask(root, filter));
+	}
+
+	private static void forEachEntry(Path dir, EntryConsumer consumer) {
+		try (var entries = Files.newDirectoryStream(dir)) {
+			for (Path entry : entries) {
+				consumer.accept(entry, Files.readAttributes(entry, BasicFileAttributes.class, NOFOLLOW_LINKS));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void visit(Consumer<Path> visitor, Path path) {
+		try {
+			visitor.accept(path);
+		} catch (Exception e) {
+			if (e instanceof IOException ioException) {
+				throw new UncheckedIOException(ioException);
+			}
+			throw e;
+		}
+	}
+
+	private interface EntryConsumer {
+		void accept(Path path, BasicFileAttributes attributes);
+	}
+
+	@RequiredArgsConstructor
+	private static final class BottomUpTask extends RecursiveAction {
+
+		private final Path dir;
+		private final boolean root;
+		private final Consumer<Path> onFile;
+		private final Consumer<Path> onDirDone;
+
+		@Override
+		protected void compute() {
+			var subtasks = new ArrayList<BottomUpTask>();
+			forEachEntry(dir, (path, attributes) -> {
+				if (attributes.isDirectory()) {
+					subtasks.add((BottomUpTask) new BottomUpTask(path, false, onFile, onDirDone).fork());
+				} else {
+					visit(onFile, path);
+				}
+			});
+			subtasks.forEach(BottomUpTask::join);
+			if (!root) {
+				visit(onDirDone, dir);
+			}
+		}
+
+	}
+
+	@RequiredArgsConstructor
+	private static final class FindTask extends RecursiveTask<List<Path>> {
+
+		private final Path dir;
+		private final BiPredicate<Path, BasicFileAttributes> filter;
+
+		@Override
+		protected List<Path> compute() {
+			var found = new ArrayList<Path>();
+			var subtasks = new ArrayList<FindTask>();
+			forEachEntry(dir, (path, attributes) -> {
+				if (attributes.isDirectory()) {
+					subtasks.add((FindTask) new FindTask(path, filter).fork());
+				} else if (filter.test(path, attributes)) {
+					found.add(path);
+				}
+			});
+			for (var subtask : subtasks) {
+				found.addAll(subtask.join());
+			}
+			return found;
+		}
+
+	}
+
+}
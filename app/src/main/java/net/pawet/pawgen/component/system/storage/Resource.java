@@ -39,8 +39,7 @@ public interface Resource extends ReadableResource, WritableResource {
 		ByteBuffer bb = ByteBuffer.allocate(TRANSFER_SIZE);
 		long tw = 0;
 		try {
-			while (tw < TRANSFER_SIZE) {
-				bb.limit((int)Math.min(Long.MAX_VALUE - tw, TRANSFER_SIZE));
+			while (true) {
 				int nr = source.read(bb);
 				if (nr <= 0) {
 					break;
@@ -33,4 +33,9 @@ public final class SimpleResource implements Resource {
 		return storage.write(destPath);
 	}
 
+	@Override
+	public void transfer() {
+		storage.transfer(srcPath, destPath, Resource.super::transfer);
+	}
+
 }
@@ -7,11 +7,13 @@ import net.pawet.pawgen.deployer.digest.DigestValidator;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.net.URI;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -19,7 +21,11 @@ import java.time.Instant;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static java.lang.Integer.MAX_VALUE;
@@ -30,6 +36,7 @@ import static java.nio.file.StandardOpenOption.*;
 import static java.util.function.Predicate.not;
 import static java.util.stream.Collectors.toMap;
 import static lombok.AccessLevel.PACKAGE;
+import static lombok.AccessLevel.PRIVATE;
 
 @Slf4j
 @RequiredArgsConstructor(access = PACKAGE)
@@ -38,28 +45,36 @@ public class Storage {
 	public static final String ARTICLE_FILENAME_PREFIX = "index.";
 	public static final String ARTICLE_FILENAME_SUFFIX = ".xml";
 	public static final String REDIRECTS_FILE = "_redirects";
+	private static final String STAGED_SUFFIX = ".staged";
 
 	private final Map<CacheKey, Resource> resourceCache = new ConcurrentHashMap<>();
+	private final Map<Path, OutputFile> outputCache = new ConcurrentHashMap<>();
+	private final Set<Path> written = ConcurrentHashMap.newKeySet();
+	private final Map<Long, Queue<Path>> transferredBySize = new ConcurrentHashMap<>();
 	private final Predicate<Path> isAttributeFile;
 	private final DigestService digestService;
-	private final Map<String, Path> staticFiles;
-	private final Path userDefinedRedirects;
+	private final Supplier<Stream<Entry<Path, Path>>> staticFileSource;
+	private final AtomicReference<StaticFiles> staticFiles;
 	private final Path contentDir;
 	private final Path outputDir;
-
-	public static Storage create(Stream<Entry<Path, Path>> relativePathPerPath, @NonNull Path contentDir, @NonNull Path outputDir) {
-		var metaService = new MetaService();
-		var digestService = new DigestService(metaService);
-		try (relativePathPerPath) {
-			var staticFileMap = relativePathPerPath.collect(toMap(e -> asRelativeUri(e.getKey()), Entry::getValue, (relativePath, __) -> {
-				throw new IllegalArgumentException("Multiple static files in static dir for" + relativePath);
-			}));
-			Path redirects = staticFileMap.remove(REDIRECTS_FILE);
-			return new Storage(metaService::isAttributeFile, digestService, staticFileMap, redirects, contentDir, outputDir);
-		}
+	private final boolean sync;
+	@Getter(value = PRIVATE, lazy = true)
+	private final boolean hardLinkSupported = probeHardLinks();
+
+	/**
+	 * @param relativePathPerPath static files, resolved again once file is added to or removed from static dir
+	 * @param sync           keep existing output, replace only changed files and remove orphans instead of cleanup
+	 * @param fileAttributes store digests also in file attributes (or sidecar files), not only in digest index
+	 * @param asyncDigest    hash closed files on a bounded digest pool instead of on the write path
+	 */
+	public static Storage create(Supplier<Stream<Entry<Path, Path>>> relativePathPerPath, @NonNull Path contentDir, @NonNull Path outputDir, boolean sync, boolean fileAttributes, boolean asyncDigest) {
+		var metaService = new MetaService(DigestIndex.load(outputDir), fileAttributes);
+		var digestService = new DigestService(metaService, asyncDigest ? DigestService.newDigestExecutor() : null);
+		var staticFiles = new AtomicReference<>(StaticFiles.of(relativePathPerPath.get()));
+		return new Storage(metaService::isAttributeFile, digestService, relativePathPerPath, staticFiles, contentDir, outputDir, sync);
 	}
 
-	private static String asRelativeUri(Path relValue) {
+	static String asRelativeUri(Path relValue) {
 		var sj = new StringJoiner("/");
 		for (Path path : relValue) {
 			sj.add(path.toString());
@@ -80,7 +95,7 @@ public class Storage {
 			.map(srcPath -> resourceCache.computeIfAbsent(new CacheKey(dest, srcPath), this::simpleResource));
 	}
 
-	private Resource simpleResource(CacheKey cacheKey) {
+	private SimpleResource simpleResource(CacheKey cacheKey) {
 		return new SimpleResource(cacheKey.src(), cacheKey.relativeDestTo(outputDir), this);
 	}
 
@@ -96,6 +111,7 @@ public class Storage {
 		return Optional.ofNullable(category)
 			.map(Category::toString)
 			.map(contentDir::resolve)
+			.filter(Files::isDirectory) // e.g. url of category that doesn't exist
 			.stream()
 			.flatMap(Storage::listArticlesInDir)
 			.map(path -> new ArticleResource(category, path, this));
@@ -112,17 +128,80 @@ public class Storage {
 	}
 
 	public Stream<Resource> staticFiles() {
-		return staticFiles.entrySet().stream()
+		return staticFiles.get().files().entrySet().stream()
 			.map(entry -> new CacheKey(entry.getKey(), entry.getValue()))
 			.map(this::simpleResource);
 	}
 
+	public Stream<Path> inputDirs() {
+		return Stream.concat(Stream.of(contentDir), staticFiles.get().files().values().stream().map(Path::getParent)).distinct();
+	}
+
+	public Optional<Category> categoryOf(Path contentPath) {
+		if (!contentPath.startsWith(contentDir)) {
+			return Optional.empty();
+		}
+		var relative = contentDir.relativize(contentPath);
+		return Optional.of(Files.isDirectory(contentPath) ? Category.of(relative) : Category.of(relative.getParent()));
+	}
+
+	/**
+	 * Removes output of changed input file, returns static resource to be copied again.
+	 * Static files are resolved again when the file is new in or removed from static dir.
+	 */
+	public Optional<Resource> invalidateInput(Path path) {
+		resourceCache.keySet().removeIf(key -> path.equals(key.src()));
+		if (path.startsWith(contentDir)) {
+			deleteOutput(outputDir.resolve(asRelativeUri(contentDir.relativize(path))));
+		}
+		var current = staticFiles.get();
+		var resource = staticResource(current, path);
+		resource.ifPresent(r -> deleteOutput(r.destPath));
+		if (!path.startsWith(contentDir) && current.contains(path) != isRegularFile(path)) {
+			log.debug("Static file {} added or removed, resolving static files again", path);
+			var resolved = StaticFiles.of(staticFileSource.get());
+			staticFiles.set(resolved);
+			resource = staticResource(resolved, path);
+		}
+		return resource.filter(r -> isRegularFile(r.srcPath)).map(Resource.class::cast);
+	}
+
+	private Optional<SimpleResource> staticResource(StaticFiles files, Path path) {
+		return files.files().entrySet().stream()
+			.filter(e -> e.getValue().equals(path))
+			.findAny()
+			.map(e -> simpleResource(new CacheKey(e.getKey(), e.getValue())));
+	}
+
+	public void deleteOutput(String rootRelativePath) {
+		deleteOutput(new CacheKey(rootRelativePath, null).relativeDestTo(outputDir));
+	}
+
+	@SneakyThrows
+	private void deleteOutput(Path dest) {
+		if (Files.isDirectory(dest)) { // articles of removed category are deleted one by one
+			return;
+		}
+		outputCache.remove(dest);
+		written.remove(dest);
+		transferredBySize.values().forEach(sameSize -> sameSize.remove(dest));
+		if (sync) { // written again through staging, so unchanged file keeps its mtime and digests
+			return;
+		}
+		digestService.remove(dest);
+		deleteIfExists(dest);
+	}
+
+	public Path resolveInput(String rootRelativePath) {
+		return resolveInputDir(rootRelativePath);
+	}
+
 	Path resolveInputDir(String pathStr) {
 		if (!pathStr.startsWith("/")) {
 			return contentDir.resolve(pathStr).normalize();
 		}
 		pathStr = pathStr.substring(1);
-		Path staticFile = staticFiles.get(pathStr);
+		Path staticFile = staticFiles.get().files().get(pathStr);
 		if (staticFile != null) {
 			return staticFile;
 		}
@@ -144,6 +223,15 @@ public class Storage {
 	@SneakyThrows
 	WritableByteChannel write(Path dest) {
 		assert dest.isAbsolute() : "expecting absolute path";
+		if (!written.add(dest)) {
+			throw new FileAlreadyExistsException(dest.toString());
+		}
+		if (sync && exists(dest)) {
+			digestService.await(dest); // previous version may be still committed
+			var staged = dest.resolveSibling('.' + dest.getFileName().toString() + STAGED_SUFFIX);
+			deleteIfExists(staged);
+			return digestService.writeStaged(dest, staged, newWritableByteChannel(staged));
+		}
 		return digestService.write(dest, newWritableByteChannel(dest));
 	}
 
@@ -153,12 +241,95 @@ public class Storage {
 		return Files.newByteChannel(dest, WRITE, TRUNCATE_EXISTING, CREATE_NEW);
 	}
 
+	/**
+	 * Copies content once: destination of a source with the same content (size, sha1 and extension) as already transferred one
+	 * becomes a hard link to it, sources of the same size are hashed to find out. Without hard links every source is copied.
+	 */
+	@SneakyThrows
+	void transfer(Path src, Path dest, Runnable copy) {
+		if (written.contains(dest) || (sync && exists(dest)) || !isHardLinkSupported()) { // already transferred, to be compared while staging or can't be linked
+			copy.run();
+			return;
+		}
+		var sameSize = transferredBySize.computeIfAbsent(Files.size(src), __ -> new ConcurrentLinkedQueue<>());
+		if (!sameSize.isEmpty()) {
+			var sha1 = digestService.sha1(src);
+			for (Path canonical : sameSize) {
+				if (hasSameExtension(canonical, dest) && Arrays.equals(sha1, digestService.loadSha1Digest(canonical)) && link(canonical, dest)) {
+					return;
+				}
+			}
+		}
+		copy.run();
+		sameSize.add(dest);
+	}
+
+	private static boolean hasSameExtension(Path path, Path other) { // cf digest depends on extension
+		var name = path.getFileName().toString();
+		var otherName = other.getFileName().toString();
+		return name.substring(name.lastIndexOf('.') + 1).equals(otherName.substring(otherName.lastIndexOf('.') + 1));
+	}
+
+	@SneakyThrows
+	private boolean link(Path canonical, Path dest) {
+		if (!written.add(dest)) {
+			log.trace("Already transferred: {}", dest);
+			return true;
+		}
+		try {
+			createDirsIfNeeded(dest.getParent());
+			Files.createLink(dest, canonical);
+		} catch (UnsupportedOperationException | IOException e) { // e.g. zip fs or other volume
+			log.debug("Can't link {} to {}, copying", dest, canonical, e);
+			written.remove(dest);
+			return false;
+		}
+		digestService.copy(canonical, dest);
+		log.debug("Linked {} to {}", dest, canonical);
+		return true;
+	}
+
+	/**
+	 * Links probe file in output dir, e.g. zip file system or FAT volume can't link.
+	 */
+	private boolean probeHardLinks() {
+		Path probe = null;
+		Path link = null;
+		try {
+			createDirsIfNeeded(outputDir);
+			probe = Files.createTempFile(outputDir, ".pawgen-link", ".probe");
+			link = probe.resolveSibling(probe.getFileName() + ".link");
+			Files.createLink(link, probe);
+			return true;
+		} catch (UnsupportedOperationException | IOException e) {
+			log.debug("Output {} doesn't support hard links, identical sources are copied", outputDir, e);
+			return false;
+		} finally {
+			for (Path path : new Path[]{link, probe}) {
+				try {
+					if (path != null) {
+						deleteIfExists(path);
+					}
+				} catch (IOException e) {
+					log.debug("Can't delete hard link probe {}", path, e);
+				}
+			}
+		}
+	}
+
 	private static void createDirsIfNeeded(Path dir) throws IOException {
 		if (dir != null && notExists(dir)) {
 			createDirectories(dir);
 		}
 	}
 
+	/**
+	 * Listener gets output files as soon as they are written and digested, null stops notifications
+	 */
+	public void onOutputDigested(Consumer<DigestAwareResource> listener) {
+		digestService.onDigested(listener == null ? null : path -> listener.accept(createDigestAwareData(path)));
+	}
+
 	public Stream<DigestAwareResource> readOutputDir() {
 		return readOutputDirInternal().map(this::createDigestAwareData);
 	}
@@ -168,19 +339,81 @@ public class Storage {
 		return DigestAwareResource.of(digestService.load(path), outputDir.relativize(path), Files.size(path), () -> read(path));
 	}
 
+	/**
+	 * Reads output file into memory, waits till file being written is closed and digested
+	 */
+	public Optional<OutputFile> readOutput(String rootRelativePath) {
+		var path = new CacheKey(rootRelativePath, null).relativeDestTo(outputDir).normalize();
+		if (!path.startsWith(outputDir) || !Files.isRegularFile(path) || isAttributeFile.test(path)) {
+			return Optional.empty();
+		}
+		digestService.await(path);
+		try {
+			return Optional.of(outputCache.computeIfAbsent(path, this::loadOutput));
+		} catch (IllegalStateException e) { // not written by pawgen, e.g. left by other tool
+			log.debug("No digest of output {}", path, e);
+			return Optional.empty();
+		}
+	}
+
+	@SneakyThrows
+	private OutputFile loadOutput(Path path) {
+		var sha1 = digestService.loadSha1(path);
+		return new OutputFile(Files.readAllBytes(path), sha1);
+	}
+
 	public boolean cleanupOutputDir() {
-		if (notExists(outputDir)) {
+		if (sync || notExists(outputDir)) {
 			return false;
 		}
-		try (var files = walk(outputDir).sorted(Collections.reverseOrder())) {
-			files.forEach(Storage::delete);
-		} catch (IOException e) {
+		outputCache.clear();
+		digestService.clear();
+		try {
+			ParallelTreeWalker.walkBottomUp(outputDir, Storage::delete, Storage::delete);
+		} catch (UncheckedIOException e) {
 			log.error("can't cleanup operation for {}", outputDir, e);
 			return false;
 		}
 		return true;
 	}
 
+	/**
+	 * In sync mode removes output files (with digests) not written in this run and empty dirs
+	 */
+	public void removeOrphans() {
+		if (!sync) {
+			return;
+		}
+		digestService.await();
+		try {
+			ParallelTreeWalker.walkBottomUp(outputDir, this::removeOrphan, Storage::deleteIfEmpty);
+		} catch (UncheckedIOException e) {
+			log.error("can't remove orphans in {}", outputDir, e);
+		}
+	}
+
+	@SneakyThrows
+	private static void deleteIfEmpty(Path dir) {
+		try (var children = Files.list(dir)) {
+			if (children.findAny().isEmpty()) {
+				delete(dir);
+			}
+		}
+	}
+
+	private void removeOrphan(Path path) {
+		if (isAttributeFile.test(path)) {
+			if (path.getFileName().toString().endsWith(STAGED_SUFFIX)) {
+				delete(path);
+			}
+		} else if (!written.contains(path)) {
+			log.debug("Removing orphan {}", path);
+			outputCache.remove(path);
+			digestService.remove(path);
+			delete(path);
+		}
+	}
+
 	@SneakyThrows
 	private static void delete(Path path) {
 		if (!path.equals(path.getRoot())) { // test is root '/' eg. for zip:// files
@@ -198,12 +431,28 @@ public class Storage {
 		return basicFileAttributes.isRegularFile() && !Files.isHidden(path) && !isAttributeFile.test(path);
 	}
 
+	/**
+	 * Stops digest stage, outstanding digests are finished
+	 */
+	public void close() {
+		digestService.close();
+	}
+
+	/**
+	 * Persists digests of the build, call once output is written
+	 */
+	public void flushDigests() {
+		digestService.flush();
+	}
+
 	public boolean assertChecksums() {
 		log.info("Checking sums");
+		digestService.await();
 		var digestValidator = new DigestValidator(digestService::loadDigest);
-		try (Stream<Path> items = readOutputDirInternal()) {
-			return items.map(digestValidator::assertChecksum).reduce(Boolean::equals).orElse(true);
-		}
+		return ParallelTreeWalker.find(outputDir, this::filterOutputDir).parallelStream()
+			.map(digestValidator::assertChecksum)
+			.reduce(Boolean::logicalAnd)
+			.orElse(true);
 	}
 
 	Instant getModificationDate(Path file) {
@@ -217,7 +466,9 @@ public class Storage {
 	@SneakyThrows
 	public void writeAliases(List<Entry<String, String>> aliases) {
 		Path destRedirects = outputDir.resolve(REDIRECTS_FILE);
+		deleteOutput(destRedirects);
 		try (var writer = newWriter(write(destRedirects), UTF_8)) {
+			var userDefinedRedirects = staticFiles.get().redirects();
 			if (userDefinedRedirects != null) {
 				writeExistingFile(userDefinedRedirects, writer);
 			}
@@ -250,3 +501,23 @@ record CacheKey(String dest, Path src) {
 		return outputDir.resolve(dest);
 	}
 }
+
+/**
+ * Static files by root relative uri, user defined redirects are kept apart as they are merged with aliases.
+ */
+record StaticFiles(Map<String, Path> files, Path redirects) {
+
+	static StaticFiles of(Stream<Entry<Path, Path>> relativePathPerPath) {
+		try (relativePathPerPath) {
+			var files = relativePathPerPath.collect(toMap(e -> Storage.asRelativeUri(e.getKey()), Entry::getValue, (relativePath, __) -> {
+				throw new IllegalArgumentException("Multiple static files in static dir for" + relativePath);
+			}));
+			Path redirects = files.remove(Storage.REDIRECTS_FILE);
+			return new StaticFiles(Map.copyOf(files), redirects);
+		}
+	}
+
+	boolean contains(Path path) {
+		return path.equals(redirects) || files.containsValue(path);
+	}
+}
@@ -7,6 +7,7 @@ import net.pawet.pawgen.component.Article;
 import net.pawet.pawgen.component.Category;
 import net.pawet.pawgen.component.resource.ResourceProcessor.ProcessingItem;
 import net.pawet.pawgen.component.system.storage.ArticleResource;
+import net.pawet.pawgen.utils.StreamingCharSequence;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.Attribute;
@@ -101,7 +102,7 @@ public final class ArticleParser {
 			.orElse("article");
 		Category category = resource.getCategory();
 		var contentParser = new ContentParser((n, attrs1) -> resourceFactory.apply(new ProcessingItem(n, category, attrs1)));
-		return Article.of(resource, () -> contentParser.read(resource.readable()),
+		return Article.of(resource, () -> StreamingCharSequence.of(out -> contentParser.read(resource.readable(), out)),
 			type, lang, title,
 			author, date, source,
 			file,
@@ -14,6 +14,8 @@ import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.channels.ReadableByteChannel;
 import java.util.Iterator;
 import java.util.Map;
@@ -33,10 +35,16 @@ public final class ContentParser {
 
 	private final BiFunction<String, Map<String, String>, Map<String, String>> handleResource;
 
-	@SneakyThrows
 	public CharSequence read(ReadableByteChannel in) {
+		var sb = new StringBuilder();
+		read(in, new StringBuilderWriter(sb));
+		return sb;
+	}
+
+	@SneakyThrows
+	public void read(ReadableByteChannel in, Writer out) {
 		try (var xmlReader = XmlReader.of(handleResource, in)) {
-			return xmlReader.read();
+			xmlReader.read(out);
 		}
 	}
 
@@ -85,11 +93,8 @@ class XmlReader implements AutoCloseable {
 		return null;
 	}
 
-	@SneakyThrows
-	public CharSequence read() {
-		StringBuilder sb = new StringBuilder();
-		body.read(sb);
-		return sb;
+	public void read(Writer out) {
+		body.read(out);
 	}
 
 	@SneakyThrows
@@ -109,23 +114,23 @@ record ArticleContentBody(QName rootTag,
 	}
 
 	@SneakyThrows
-	public void read(StringBuilder sb) {
+	public void read(Writer out) {
 		while (xmlr.hasNext()) {
 			XMLEvent event = xmlr.nextEvent();
 			if (event.isEndElement() && rootTag.equals(event.asEndElement().getName())) {
 				return;
 			}
-			handleTag(sb, event);
+			handleTag(out, event);
 		}
 	}
 
-	private void handleTag(StringBuilder sb, XMLEvent event) throws XMLStreamException {
+	private void handleTag(Writer out, XMLEvent event) throws XMLStreamException, IOException {
 		switch (event.getEventType()) {
 			case XMLStreamConstants.START_ELEMENT -> {
 				StartElement startElement = event.asStartElement();
 				QName qName = startElement.getName();
 				String name = qName.getLocalPart();
-				sb.append('<').append(name);
+				out.append('<').append(name);
 
 				var attributes = filter.apply(startElement.getAttributes())
 					.filter(attr -> attr.getValue() != null)
@@ -136,23 +141,23 @@ record ArticleContentBody(QName rootTag,
 					));
 
 				handleResource.apply(name, attributes)
-					.forEach((key, value) -> appendAttribute(sb, key, value));
+					.forEach((key, value) -> appendAttribute(out, key, value));
 
 				if (isEmptyTag(name)) {
-					sb.append('/');
+					out.append('/');
 				}
-				sb.append('>');
+				out.append('>');
 			}
 			case XMLStreamConstants.END_ELEMENT -> {
 				String name = event.asEndElement().getName().getLocalPart();
 				if (!isEmptyTag(name)) {
-					sb.append("</").append(name).append('>');
+					out.append("</").append(name).append('>');
 				}
 			}
 			case XMLStreamConstants.CHARACTERS -> {
 				Characters characters = event.asCharacters();
 				if (!characters.isIgnorableWhiteSpace()) {
-					characters.writeAsEncodedUnicode(new StringBuilderWriter(sb));
+					characters.writeAsEncodedUnicode(out);
 				}
 			}
 		}
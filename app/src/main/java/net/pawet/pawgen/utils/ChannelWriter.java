@@ -0,0 +1,139 @@
+package net.pawet.pawgen.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.charset.CodingErrorAction.REPLACE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * UTF-8 writer over channel, encodes straight into a big pooled buffer instead of {@link java.nio.channels.Channels#newWriter} small one.
+ * Not thread safe.
+ */
+public final class ChannelWriter extends Writer {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+	private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+	private final WritableByteChannel channel;
+	private final CharsetEncoder encoder = UTF_8.newEncoder().onMalformedInput(REPLACE).onUnmappableCharacter(REPLACE);
+	private final CharBuffer single = CharBuffer.allocate(1);
+	private ByteBuffer buffer = acquire();
+	private char leftover; // high surrogate waiting for its pair
+	private boolean hasLeftover;
+
+	public ChannelWriter(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	private static ByteBuffer acquire() {
+		var buffer = POOL.poll();
+		return buffer == null ? ByteBuffer.allocate(BUFFER_SIZE) : buffer;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		encode(single.clear().put((char) c).flip());
+	}
+
+	@Override
+	public Writer append(char c) throws IOException {
+		write(c);
+		return this;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		encode(CharBuffer.wrap(cbuf, off, len));
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		encode(CharBuffer.wrap(str, off, off + len));
+	}
+
+	@Override
+	public Writer append(CharSequence csq) throws IOException {
+		encode(CharBuffer.wrap(csq == null ? "null" : csq));
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end) throws IOException {
+		encode(CharBuffer.wrap(csq == null ? "null" : csq, start, end));
+		return this;
+	}
+
+	private void encode(CharBuffer in) throws IOException {
+		ensureOpen();
+		while (hasLeftover && in.hasRemaining()) {
+			var pair = CharBuffer.wrap(new char[]{leftover, in.get()});
+			encode(pair, false);
+			hasLeftover = pair.hasRemaining();
+			if (hasLeftover) {
+				leftover = pair.get();
+			}
+		}
+		encode(in, false);
+		if (in.hasRemaining()) {
+			leftover = in.get();
+			hasLeftover = true;
+		}
+	}
+
+	private void encode(CharBuffer in, boolean endOfInput) throws IOException {
+		CoderResult result;
+		while ((result = encoder.encode(in, buffer, endOfInput)).isOverflow()) {
+			writeBuffer();
+		}
+		if (result.isError()) {
+			result.throwException();
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Writer closed");
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		writeBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try (channel) {
+			encode(hasLeftover ? CharBuffer.wrap(new char[]{leftover}) : CharBuffer.allocate(0), true);
+			while (encoder.flush(buffer).isOverflow()) {
+				writeBuffer();
+			}
+			writeBuffer();
+		} finally {
+			buffer.clear();
+			POOL.offer(buffer);
+			buffer = null;
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package net.pawet.pawgen.utils;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.Writer;
+import java.util.function.Consumer;
+
+import static lombok.AccessLevel.PRIVATE;
+
+/**
+ * Content produced on demand straight into a writer, materialized only if used as plain {@link CharSequence}.
+ */
+@RequiredArgsConstructor(staticName = "of")
+public final class StreamingCharSequence implements CharSequence {
+
+	@NonNull
+	private final Consumer<Writer> producer;
+	@Getter(value = PRIVATE, lazy = true)
+	private final String materialized = materialize();
+
+	public void writeTo(Writer writer) {
+		producer.accept(writer);
+	}
+
+	private String materialize() {
+		var sb = new StringBuilder();
+		writeTo(new StringBuilderWriter(sb));
+		return sb.toString();
+	}
+
+	@Override
+	public int length() {
+		return getMaterialized().length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return getMaterialized().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return getMaterialized().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return getMaterialized();
+	}
+
+}
@@ -32,6 +32,7 @@ class ApplicationSpec extends Specification {
 			hosts           : 'localhost',
 			dateFrom        : EPOCH.toString(),
 			deployers       : 'NONE',
+			'digest.fileAttributes': 'true',
 			'watermark.text': '', // disable as watermarking produces different result on win, it makes assertion not trivial
 		]).toUri() as String
 		and: 'site data'
@@ -4,6 +4,7 @@ import com.github.tomakehurst.wiremock.common.Slf4jNotifier
 import com.github.tomakehurst.wiremock.core.Options
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration
 import com.github.tomakehurst.wiremock.extension.responsetemplating.ResponseTemplateTransformer
+import net.pawet.pawgen.deployer.DeployerTransport
 import net.pawet.pawgen.deployer.NetlifyClient
 import spock.lang.AutoCleanup
 import spock.lang.Specification
@@ -100,7 +101,10 @@ class NetlifyApplicationSpec extends Specification {
 	String netlifyAccessToken = getenv().getOrDefault('NETLIFY_ACCESSTOKEN', 'testToken')
 	String netlifySiteAppId = getenv().getOrDefault('NETLIFY_SITEID', 'ffb9e628-4835-4b68-ab2a-5bfdd0b42348')
 
-	def client = new NetlifyClient(netlifyUrl, netlifyAccessToken)
+	@AutoCleanup
+	DeployerTransport transport = new DeployerTransport()
+
+	def client = new NetlifyClient(transport, netlifyUrl, netlifyAccessToken)
 
 	def condition = new PollingConditions(delay: 30, initialDelay: 0.2)
 }
@@ -0,0 +1,271 @@
+package net.pawet.pawgen.component
+
+import net.pawet.pawgen.component.system.CliOptions
+import net.pawet.pawgen.component.system.PreviewServer
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import util.PawgenFs
+
+import java.lang.Void as Should
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+import java.time.Clock
+
+import static java.nio.file.Files.*
+import static java.time.Instant.EPOCH
+
+class PawgenSpec extends Specification {
+
+	@AutoCleanup
+	PawgenFs pawFs = PawgenFs.unix()
+	Path outputDir = pawFs.dir('out')
+	Path templateDir = pawFs.dir('templates')
+	Path contentDir = pawFs.dir('content')
+	Path staticDir = pawFs.dir('static')
+
+	Should 'render again only articles affected by changed article'() {
+		given:
+		writeArticle('', 'Main')
+		writeArticle('newcat', 'newcat')
+		def changed = writeArticle('newcat/test', 'test')
+		writeArticle('othercat', 'othercat')
+		writeString(staticDir.resolve('test.css'), 'test')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}:{{#children}}{{title}},{{/children}}')
+		def app = Pawgen.create(Clock.systemUTC(), config())
+		app.render()
+		delete(outputDir.resolve('othercat/othercat.html')) // not affected, so must not be rendered again
+		when:
+		writeArticle('newcat/test', 'renamed')
+		app.handleChanges([changed])
+		then:
+		pawFs.listFiles(outputDir) == ['main.html', 'newcat/newcat.html', 'newcat/test/renamed.html', 'test.css', '_redirects'].collect(outputDir.&resolve) as Set
+		readString(outputDir.resolve('newcat/newcat.html')) == 'newcat:renamed,'
+		readString(outputDir.resolve('main.html')) == 'Main:newcat,othercat,'
+		cleanup:
+		app.close()
+	}
+
+	Should 'copy changed static file again'() {
+		given:
+		writeArticle('', 'Main')
+		def css = staticDir.resolve('test.css')
+		writeString(css, 'test')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}')
+		def app = Pawgen.create(Clock.systemUTC(), config())
+		app.render()
+		when:
+		writeString(css, 'changed')
+		app.handleChanges([css])
+		then:
+		readString(outputDir.resolve('test.css')) == 'changed'
+		readString(outputDir.resolve('main.html')) == 'Main'
+		cleanup:
+		app.close()
+	}
+
+	Should 'copy static file added while watching'() {
+		given:
+		writeArticle('', 'Main')
+		writeString(staticDir.resolve('test.css'), 'test')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}')
+		def app = Pawgen.create(Clock.systemUTC(), config())
+		app.render()
+		when:
+		def added = writeString(pawFs.dir("$staticDir/css").resolve('added.css'), 'added')
+		app.handleChanges([added])
+		then:
+		readString(outputDir.resolve('css/added.css')) == 'added'
+		cleanup:
+		app.close()
+	}
+
+	Should 'copy changed linked content file again'() {
+		given:
+		writeString(contentDir.resolve('index.en.xml'), '''\
+<?xml version="1.0" encoding="UTF-8" ?>
+<body title="Main" type="article"><a href="doc.txt">doc</a></body>
+''')
+		def doc = writeString(contentDir.resolve('doc.txt'), 'doc')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}')
+		def app = Pawgen.create(Clock.systemUTC(), config())
+		app.render()
+		when:
+		writeString(doc, 'changed')
+		app.handleChanges([doc])
+		then:
+		readString(outputDir.resolve('doc.txt')) == 'changed'
+		cleanup:
+		app.close()
+	}
+
+	Should 'render everything when template changes'() {
+		given:
+		writeArticle('', 'Main')
+		writeArticle('newcat', 'newcat')
+		def template = templateDir.resolve('index.html.mustache')
+		writeString(template, '{{title}}{{#children}}{{/children}}')
+		def app = Pawgen.create(Clock.systemUTC(), config())
+		app.render()
+		when:
+		writeString(template, '<b>{{title}}</b>{{#children}}{{/children}}')
+		app.handleChanges([template])
+		then:
+		readString(outputDir.resolve('main.html')) == '<b>Main</b>'
+		readString(outputDir.resolve('newcat/newcat.html')) == '<b>newcat</b>'
+		cleanup:
+		app.close()
+	}
+
+	Should 'render article on demand when it is not reached by navigation'() {
+		given:
+		writeArticle('', 'Main')
+		writeArticle('newcat', 'newcat')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}')
+		def app = Pawgen.create(Clock.systemUTC(), config())
+		app.render()
+		expect:
+		notExists(outputDir.resolve('newcat/newcat.html'))
+		new String(app.readOutput('/newcat/newcat.html').orElseThrow().content()) == 'newcat'
+		app.readOutput('/newcat/missing.html').isEmpty()
+		cleanup:
+		app.close()
+	}
+
+	Should 'respond not found for #url'() {
+		given:
+		writeArticle('', 'Main')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}')
+		def app = Pawgen.create(Clock.systemUTC(), config())
+		app.render()
+		def server = PreviewServer.start(new InetSocketAddress(InetAddress.loopbackAddress, 0), app::readOutput)
+		when:
+		def response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(URI.create("http://localhost:${server.address.port}$url")).build(), HttpResponse.BodyHandlers.discarding())
+		then:
+		response.statusCode() == 404
+		cleanup:
+		server?.close()
+		app.close()
+		where:
+		url << ['/nocat/x.html', '/../x.html', '/newcat/../../x.html']
+	}
+
+	Should 'sync output replacing only changed files'() {
+		given:
+		writeArticle('', 'Main')
+		writeArticle('newcat', 'newcat')
+		writeArticle('othercat', 'othercat')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}:{{#children}}{{title}},{{/children}}')
+		renderSite(config('output.sync': 'true'))
+		def unchanged = outputDir.resolve('othercat/othercat.html')
+		def unchangedKey = readAttributes(unchanged, BasicFileAttributes).fileKey()
+		def changedKey = readAttributes(outputDir.resolve('main.html'), BasicFileAttributes).fileKey()
+		when:
+		writeArticle('newcat', 'renamed')
+		renderSite(config('output.sync': 'true'))
+		then:
+		pawFs.listFiles(outputDir) == ['main.html', 'newcat/renamed.html', 'othercat/othercat.html', '_redirects'].collect(outputDir.&resolve) as Set
+		readString(outputDir.resolve('main.html')) == 'Main:renamed,othercat,'
+		readAttributes(unchanged, BasicFileAttributes).fileKey() == unchangedKey
+		readAttributes(outputDir.resolve('main.html'), BasicFileAttributes).fileKey() != changedKey
+	}
+
+	Should 'digest output off the write path'() {
+		given:
+		writeArticle('', 'Main')
+		writeArticle('newcat', 'newcat')
+		writeString(staticDir.resolve('test.css'), 'test')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}:{{#children}}{{title}},{{/children}}')
+		when:
+		def digests = renderAndReadDigests(config())
+		def asyncDigests = renderAndReadDigests(config('digest.async': 'true'))
+		def asyncSyncDigests = renderAndReadDigests(config('digest.async': 'true', 'output.sync': 'true'))
+		then:
+		digests.size() == 4
+		asyncDigests == digests
+		asyncSyncDigests == digests
+	}
+
+	Should 'link outputs of identical sources'() {
+		given:
+		writeArticle('', 'Main')
+		writeString(pawFs.dir("$staticDir/a").resolve('logo.css'), 'same')
+		writeString(pawFs.dir("$staticDir/b").resolve('logo.css'), 'same')
+		writeString(pawFs.dir("$staticDir/c").resolve('logo.css'), 'diff')
+		writeString(pawFs.dir("$staticDir/d").resolve('logo.txt'), 'same')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}')
+		when:
+		def digests = renderAndReadDigests(config())
+		then:
+		fileKey('a/logo.css') == fileKey('b/logo.css')
+		fileKey('a/logo.css') != fileKey('c/logo.css')
+		fileKey('a/logo.css') != fileKey('d/logo.txt')
+		readString(outputDir.resolve('b/logo.css')) == 'same'
+		digests['/b/logo.css'] == digests['/a/logo.css']
+		digests['/d/logo.txt'][1] != digests['/a/logo.css'][1]
+	}
+
+	Should 'copy outputs of identical sources when output can not link'() {
+		given:
+		pawFs.close()
+		pawFs = PawgenFs.unixWithoutLinks()
+		outputDir = pawFs.dir('out')
+		templateDir = pawFs.dir('templates')
+		contentDir = pawFs.dir('content')
+		staticDir = pawFs.dir('static')
+		and:
+		writeArticle('', 'Main')
+		writeString(pawFs.dir("$staticDir/a").resolve('logo.css'), 'same')
+		writeString(pawFs.dir("$staticDir/b").resolve('logo.css'), 'same')
+		writeString(templateDir.resolve('index.html.mustache'), '{{title}}')
+		when:
+		def digests = renderAndReadDigests(config())
+		then:
+		fileKey('a/logo.css') != fileKey('b/logo.css')
+		readString(outputDir.resolve('b/logo.css')) == 'same'
+		digests['/b/logo.css'] == digests['/a/logo.css']
+	}
+
+	private Object fileKey(String path) {
+		readAttributes(outputDir.resolve(path), BasicFileAttributes).fileKey()
+	}
+
+	private static Map<String, List<String>> renderAndReadDigests(CliOptions config) {
+		try (def app = Pawgen.create(Clock.systemUTC(), config)) {
+			app.cleanupOutputDir()
+			app.render()
+			try (def files = app.readOutputDir()) {
+				return files.toList().collectEntries { [(it.path): [it.getDigestBy('sha1').get(), it.getDigestBy('cfdigest').get()]] }
+			}
+		}
+	}
+
+	private static void renderSite(CliOptions config) {
+		try (def app = Pawgen.create(Clock.systemUTC(), config)) {
+			app.cleanupOutputDir()
+			app.render()
+		}
+	}
+
+	private Path writeArticle(String category, String title) {
+		writeString(pawFs.dir("$contentDir/$category").resolve('index.en.xml'), """\
+<?xml version="1.0" encoding="UTF-8" ?>
+<body title="$title" type="article">$title</body>
+""")
+	}
+
+	private CliOptions config(Map<String, String> extra = [:]) {
+		CliOptions.parse([pawFs.writeProperties('config.properties', extra + [
+			contentDir      : contentDir.toUri() as String,
+			staticDirs      : "${staticDir.toUri()}**" as String,
+			templatesDir    : templateDir.toUri() as String,
+			outputDir       : outputDir.toUri() as String,
+			dateFrom        : EPOCH.toString(),
+			deployers       : 'NONE',
+			'watermark.text': '',
+		]).toUri() as String])
+	}
+
+}
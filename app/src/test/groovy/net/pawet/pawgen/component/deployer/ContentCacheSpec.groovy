@@ -0,0 +1,62 @@
+package net.pawet.pawgen.component.deployer
+
+import net.pawet.pawgen.component.system.storage.DigestAwareResource
+import spock.lang.Specification
+
+import java.lang.Void as Should
+import java.nio.channels.Channels
+import java.nio.channels.ReadableByteChannel
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+
+class ContentCacheSpec extends Specification {
+
+	Should 'read file from disk once for all targets'() {
+		given:
+		def reads = new AtomicInteger()
+		def file = resource('/a.html', 'content', reads)
+		def cache = new ContentCache(1024)
+		when:
+		def contents = (1..3).collect { cache.inputStream(file).text }
+		then:
+		contents == ['content'] * 3
+		reads.get() == 1
+	}
+
+	Should 'drop least recently used files above size limit'() {
+		given:
+		def reads = new AtomicInteger()
+		def files = (1..16).collect { resource("/file$it", 'x' * 10, reads) }
+		def cache = new ContentCache(160)
+		files.each { cache.inputStream(it).text }
+		cache.inputStream(files[0]).text
+		when: 'cache is full'
+		cache.inputStream(resource('/new', 'y' * 10, reads)).text
+		cache.inputStream(files[0]).text
+		then:
+		reads.get() == 17
+		when:
+		cache.inputStream(files[1]).text
+		then:
+		reads.get() == 18
+	}
+
+	Should 'always read from disk without cache'() {
+		given:
+		def reads = new AtomicInteger()
+		def file = resource('/a.html', 'content', reads)
+		def cache = ContentCache.none()
+		when:
+		2.times { cache.inputStream(file).text }
+		then:
+		reads.get() == 2
+	}
+
+	private static DigestAwareResource resource(String path, String content, AtomicInteger reads) {
+		new DigestAwareResource([:], path, content.length(), {
+			reads.incrementAndGet()
+			Channels.newChannel(new ByteArrayInputStream(content.bytes))
+		} as Supplier<ReadableByteChannel>)
+	}
+
+}
@@ -0,0 +1,61 @@
+package net.pawet.pawgen.component.render
+
+import net.pawet.pawgen.component.Article
+import net.pawet.pawgen.component.Category
+import net.pawet.pawgen.component.system.storage.ArticleResource
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import util.PawgenFs
+
+import java.lang.Void as Should
+import java.nio.file.Path
+import java.time.Clock
+import java.time.ZonedDateTime
+import java.util.stream.Stream
+
+import static java.nio.file.Files.writeString
+
+class RendererSpec extends Specification {
+
+	Should 'query navigation once per article context'() {
+		given:
+		writeString(templateDir.resolve('index.html.mustache'),
+			'{{#children}}[{{title}}]{{/children}}{{#hasChildren}}+{{/hasChildren}}{{#children}}({{title}}){{/children}}|{{#latest}}{{title}}{{/latest}}{{#latest}}{{title}}{{/latest}}')
+		def queryService = new ArticleQuery(null, null) {
+			@Override
+			Stream<Article> getChildren(Category category) {
+				[article('child1'), article('child2')].stream()
+			}
+
+			@Override
+			Stream<Article> getLast(Category category, ZonedDateTime toDate, int limit) {
+				[article('latest')].stream()
+			}
+		}
+		def templater = new Templater({ null }, templateDir, null)
+		def renderer = Renderer.of(templater, Clock.systemUTC(), queryService, { })
+		def render = { context -> new StringWriter().tap { templater.render(it, context, '') }.toString() }
+		when:
+		def first = renderer.create(article('first'))
+		def outputs = (1..3).collect { render(first) }
+		then: 'children and latest are queried once, however many times template uses them'
+		outputs as Set == ['[child1][child2]+(child1)(child2)|latestlatest'] as Set
+		renderer.navigationQueryCount == 2
+		when:
+		def second = renderer.create(article('second'))
+		3.times { render(second) }
+		then: 'new context queries again'
+		renderer.navigationQueryCount == 4
+	}
+
+	Article article(String title) {
+		Article.of(new ArticleResource(Category.of('cat'), Path.of("/cat/$title/index.en.xml"), null), { '' },
+			'article', 'en', title, 'Author', ZonedDateTime.parse('2022-06-22T17:29:58Z'), 'source', null, [])
+	}
+
+	@AutoCleanup
+	PawgenFs pawFs = PawgenFs.unix()
+
+	Path templateDir = pawFs.dir('templates')
+
+}
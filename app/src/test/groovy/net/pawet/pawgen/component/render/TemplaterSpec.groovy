@@ -0,0 +1,158 @@
+package net.pawet.pawgen.component.render
+
+import net.pawet.pawgen.component.Article
+import net.pawet.pawgen.component.Category
+import net.pawet.pawgen.component.system.storage.ArticleResource
+import net.pawet.pawgen.component.system.TemplateExecutorService
+import net.pawet.pawgen.utils.StreamingCharSequence
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.lang.Unroll
+import util.PawgenFs
+
+import java.lang.Void as Should
+import java.nio.file.Path
+import java.time.Clock
+import java.time.ZonedDateTime
+import java.util.concurrent.CountDownLatch
+import java.util.stream.Stream
+
+import static java.util.concurrent.TimeUnit.SECONDS
+
+import static java.nio.file.Files.delete
+import static java.nio.file.Files.writeString
+
+class TemplaterSpec extends Specification {
+
+	@Unroll
+	Should 'compile binding "#name"'() {
+		when:
+		var binding = new BindingCompiler({ null }, false).compile(name)
+		then:
+		binding.level() == level
+		binding.get([]) == null
+		where:
+		name                       || level
+		'title'                    || 0
+		'../title'                 || 1
+		'../../parent.title'       || 2
+		'../func.relativize'       || 1
+	}
+
+	Should 'render template with hundreds of bindings'() {
+		given:
+		def fields = [title: 'Title', author: 'Author', lang: 'en', url: '/cat/title.html', type: 'article', source: 'source']
+		def names = fields.keySet() as List
+		def bindings = (0..<300).collect { names[it % names.size()] }
+		writeString(templateDir.resolve('index.html.mustache'), bindings.collect { "{{{$it}}}" }.join('|'))
+		and:
+		def templater = new Templater({ null }, templateDir, null)
+		def context = Renderer.of(templater, Clock.systemUTC(), null, null).create(article)
+		def render = {
+			def writer = new StringWriter()
+			templater.render(writer, context, '')
+			writer.toString()
+		}
+		when:
+		render()
+		then: 'every variable is looked up once, name is not resolved against scopes'
+		templater.lookupCount == bindings.size()
+		when:
+		def outputs = (2..iterations).collect { render() } as Set
+		then: 'lookups grow by bindings per render only'
+		outputs == [bindings.collect(fields::get).join('|')] as Set
+		templater.lookupCount == bindings.size() * iterations
+	}
+
+	Should 'stream content into writer'() {
+		given:
+		writeString(templateDir.resolve('index.html.mustache'), '<{{title}}>{{{.}}}</{{title}}>')
+		def templater = new Templater({ null }, templateDir, null)
+		def context = Renderer.of(templater, Clock.systemUTC(), null, null).create(article)
+		def writer = new StringWriter()
+		def targets = []
+		def content = StreamingCharSequence.of({ targets << it; it.write('content') })
+		when:
+		templater.render(writer, context, content)
+		then:
+		writer.toString() == '<Title>content</Title>'
+		targets.size() == 1
+		targets[0].is(writer)
+	}
+
+	Should 'render navigation sections concurrently and join them in order'() {
+		given:
+		writeString(templateDir.resolve('index.html.mustache'), '{{#latest}}[{{title}}]{{/latest}}|{{#children}}[{{title}}]{{/children}}|{{{.}}}')
+		def childrenQueried = new CountDownLatch(1)
+		def queryService = new ArticleQuery(null, null) { // spock mocks serialize invocations
+			@Override
+			Stream<Article> getLast(Category category, ZonedDateTime toDate, int limit) {
+				assert childrenQueried.await(5, SECONDS): 'sections are not executed concurrently'
+				[article('latest')].stream()
+			}
+
+			@Override
+			Stream<Article> getChildren(Category category) {
+				childrenQueried.countDown()
+				[article('child1'), article('child2')].stream()
+			}
+		}
+		and:
+		def executor = new TemplateExecutorService()
+		def templater = new Templater({ null }, templateDir, executor)
+		def context = Renderer.of(templater, Clock.systemUTC(), queryService, { }).create(article)
+		def writer = new StringWriter()
+		when:
+		templater.render(writer, context, 'content')
+		then:
+		writer.toString() == '[latest]|[child1][child2]|content'
+		executor.taskCount == 2
+		cleanup:
+		executor.shutdown()
+	}
+
+	Should 'reload template when partial changes'() {
+		given:
+		writeString(templateDir.resolve('index.html.mustache'), '<{{>part}}>')
+		writeString(templateDir.resolve('part.mustache'), '{{title}}')
+		def templater = new Templater({ null }, templateDir, null)
+		def context = Renderer.of(templater, Clock.systemUTC(), null, null).create(article)
+		def render = { new StringWriter().tap { templater.render(it, context, '') }.toString() }
+		expect:
+		templater.dependencies == [templateDir.resolve('index.html.mustache'), templateDir.resolve('part.mustache')] as Set
+		!templater.reload()
+		render() == '<Title>'
+		when:
+		writeString(templateDir.resolve('part.mustache'), '{{author}}')
+		then:
+		templater.reload()
+		render() == '<Author>'
+		!templater.reload()
+		when: 'partial is broken'
+		delete(templateDir.resolve('part.mustache'))
+		then: 'previous version is kept'
+		!templater.reload()
+		render() == '<Author>'
+		when: 'partial reverted'
+		writeString(templateDir.resolve('part.mustache'), '{{title}}')
+		then:
+		templater.reload()
+		render() == '<Title>'
+	}
+
+	Article article(String title) {
+		Article.of(new ArticleResource(Category.of('cat'), Path.of("/cat/$title/index.en.xml"), null), { '' },
+			'article', 'en', title, 'Author', ZonedDateTime.parse('2022-06-22T17:29:58Z'), 'source', null, [])
+	}
+
+	int iterations = 1_000
+
+	@AutoCleanup
+	PawgenFs pawFs = PawgenFs.unix()
+
+	Path templateDir = pawFs.dir('templates')
+
+	Article article = Article.of(new ArticleResource(Category.of('cat'), Path.of('/cat/index.en.xml'), null), { '' },
+		'article', 'en', 'Title', 'Author', ZonedDateTime.parse('2022-06-22T17:29:58Z'), 'source', null, [])
+
+}
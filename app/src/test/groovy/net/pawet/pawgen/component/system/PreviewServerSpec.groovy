@@ -0,0 +1,112 @@
+package net.pawet.pawgen.component.system
+
+import net.pawet.pawgen.component.system.storage.OutputFile
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.lang.Void as Should
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class PreviewServerSpec extends Specification {
+
+	@Shared
+	Map<String, OutputFile> outputs = [
+		'/main.html'     : new OutputFile('<p>main</p>'.getBytes(UTF_8), 'abc'),
+		'/index.html'    : new OutputFile('<p>index</p>'.getBytes(UTF_8), 'ghi'),
+		'/dir/index.html': new OutputFile('<p>dir</p>'.getBytes(UTF_8), 'jkl'),
+		'/_redirects'    : new OutputFile('''\
+/temporary.html /main.html 302
+/rewritten.html /main.html 200!
+#Autogenerated redirectsFile
+/alias.html /main.html
+'''.getBytes(UTF_8), 'def'),
+	]
+	@Shared
+	@AutoCleanup
+	PreviewServer server = PreviewServer.start(new InetSocketAddress('localhost', 0), { String path ->
+		if (path == '/broken.html') {
+			throw new IllegalStateException('broken')
+		}
+		Optional.ofNullable(outputs[path])
+	})
+	@Shared
+	HttpClient client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER).build()
+
+	Should 'serve output with etag'() {
+		when:
+		def response = client.send(request('/main.html').build(), HttpResponse.BodyHandlers.ofString())
+		then:
+		response.statusCode() == 200
+		response.body() == '<p>main</p>'
+		response.headers().firstValue('ETag').get() == '"abc"'
+		response.headers().firstValue('Content-Type').get() == 'text/html; charset=utf-8'
+	}
+
+	Should 'respond not modified for known etag'() {
+		when:
+		def response = client.send(request('/main.html').header('If-None-Match', '"abc"').build(), HttpResponse.BodyHandlers.discarding())
+		then:
+		response.statusCode() == 304
+	}
+
+	Should 'redirect alias'() {
+		when:
+		def response = client.send(request('/alias.html').build(), HttpResponse.BodyHandlers.discarding())
+		then:
+		response.statusCode() == 301
+		response.headers().firstValue('Location').get() == '/main.html'
+	}
+
+	Should 'keep status of redirect rule'() {
+		when:
+		def response = client.send(request('/temporary.html').build(), HttpResponse.BodyHandlers.discarding())
+		then:
+		response.statusCode() == 302
+		response.headers().firstValue('Location').get() == '/main.html'
+	}
+
+	Should 'serve rewritten path'() {
+		when:
+		def response = client.send(request('/rewritten.html').build(), HttpResponse.BodyHandlers.ofString())
+		then:
+		response.statusCode() == 200
+		response.body() == '<p>main</p>'
+	}
+
+	Should 'serve index file for #path'() {
+		when:
+		def response = client.send(request(path).build(), HttpResponse.BodyHandlers.ofString())
+		then:
+		response.statusCode() == 200
+		response.body() == body
+		response.headers().firstValue('Content-Type').get() == 'text/html; charset=utf-8'
+		where:
+		path    | body
+		'/'     | '<p>index</p>'
+		'/dir/' | '<p>dir</p>'
+	}
+
+	Should 'respond not found for missing output'() {
+		when:
+		def response = client.send(request('/missing.html').build(), HttpResponse.BodyHandlers.discarding())
+		then:
+		response.statusCode() == 404
+	}
+
+	Should 'respond server error when output fails'() {
+		when:
+		def response = client.send(request('/broken.html').build(), HttpResponse.BodyHandlers.discarding())
+		then:
+		response.statusCode() == 500
+	}
+
+	private HttpRequest.Builder request(String path) {
+		HttpRequest.newBuilder(URI.create("http://localhost:${server.address.port}$path"))
+	}
+
+}
@@ -0,0 +1,75 @@
+package net.pawet.pawgen.component.system.storage
+
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import util.PawgenFs
+
+import java.lang.Void as Should
+import java.nio.file.Path
+
+import static java.nio.file.Files.*
+
+class DigestIndexSpec extends Specification {
+
+	@AutoCleanup
+	PawgenFs pawFs = PawgenFs.unix()
+	Path dir = pawFs.dir('out')
+
+	Should 'load digests stored by previous build'() {
+		given:
+		def file = pawFs.file("$dir/cat/test.html", 'test'.bytes)
+		def index = DigestIndex.load(dir)
+		index.put(file, 'sha1', [1, 2] as byte[])
+		index.put(file, 'cfdigest', [3] as byte[])
+		index.flush()
+		when:
+		def loaded = DigestIndex.load(dir)
+		then:
+		loaded.get(file, 'sha1').get() == [1, 2] as byte[]
+		loaded.get(file, 'cfdigest').get() == [3] as byte[]
+	}
+
+	Should 'drop digest of file changed after build'() {
+		given:
+		def file = pawFs.file("$dir/test.html", 'test'.bytes)
+		def index = DigestIndex.load(dir)
+		index.put(file, 'sha1', [1] as byte[])
+		index.flush()
+		write(file, 'changed'.bytes)
+		expect:
+		DigestIndex.load(dir).get(file, 'sha1').isEmpty()
+	}
+
+	Should 'append removal as tombstone'() {
+		given:
+		def removed = pawFs.file("$dir/removed.html", 'test'.bytes)
+		def kept = pawFs.file("$dir/kept.html", 'test'.bytes)
+		def index = DigestIndex.load(dir)
+		index.put(removed, 'sha1', [1] as byte[])
+		index.put(kept, 'sha1', [2] as byte[])
+		index.flush()
+		def sizeBefore = size(dir.resolve(DigestIndex.FILE_NAME))
+		when:
+		def next = DigestIndex.load(dir)
+		next.remove(removed)
+		next.flush()
+		then:
+		size(dir.resolve(DigestIndex.FILE_NAME)) > sizeBefore
+		def loaded = DigestIndex.load(dir)
+		loaded.get(removed, 'sha1').isEmpty()
+		loaded.get(kept, 'sha1').get() == [2] as byte[]
+	}
+
+	Should 'rewrite broken index'() {
+		given:
+		def file = pawFs.file("$dir/test.html", 'test'.bytes)
+		writeString(dir.resolve(DigestIndex.FILE_NAME), 'broken')
+		when:
+		def index = DigestIndex.load(dir)
+		index.put(file, 'sha1', [1] as byte[])
+		index.flush()
+		then:
+		DigestIndex.load(dir).get(file, 'sha1').get() == [1] as byte[]
+	}
+
+}
@@ -0,0 +1,68 @@
+package net.pawet.pawgen.component.system.storage
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.lang.Void as Should
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.function.Consumer
+
+class ParallelTreeWalkerSpec extends Specification {
+
+	@TempDir
+	Path root
+
+	def setup() {
+		['a/1.html', 'a/b/2.html', 'a/b/c/3.css', 'd/4.html', '5.html'].each {
+			def file = root.resolve(it)
+			Files.createDirectories(file.parent)
+			Files.writeString(file, it)
+		}
+	}
+
+	Should 'visit dir once its subtree is done'() {
+		given:
+		def visited = new CopyOnWriteArrayList<Path>()
+		when:
+		ParallelTreeWalker.walkBottomUp(root, visited::add as Consumer, visited::add as Consumer)
+		then:
+		visited.collect { root.relativize(it).toString().replace('\\', '/') }.sort() ==
+			['5.html', 'a', 'a/1.html', 'a/b', 'a/b/2.html', 'a/b/c', 'a/b/c/3.css', 'd', 'd/4.html']
+		visited.every { path ->
+			visited.findAll { it != path && it.startsWith(path) }.every { visited.indexOf(it) < visited.indexOf(path) }
+		}
+	}
+
+	Should 'find filtered files'() {
+		expect:
+		ParallelTreeWalker.find(root, { path, attrs -> attrs.regularFile && path.toString().endsWith('.html') })
+			.collect { root.relativize(it).toString().replace('\\', '/') }
+			.sort() == ['5.html', 'a/1.html', 'a/b/2.html', 'd/4.html']
+	}
+
+	Should 'stop walk with unchecked exception if visitor fails with IOException'() {
+		when:
+		ParallelTreeWalker.walkBottomUp(root, { throw new IOException('locked') } as Consumer, {} as Consumer)
+		then:
+		def e = thrown(UncheckedIOException)
+		e.cause.message == 'locked'
+	}
+
+	Should 'rethrow runtime exception of visitor as is'() {
+		when:
+		ParallelTreeWalker.walkBottomUp(root, {} as Consumer, { throw new IllegalStateException('not empty') } as Consumer)
+		then:
+		def e = thrown(IllegalStateException)
+		e.message.contains('not empty')
+	}
+
+	Should 'stop walk with unchecked exception if dir is missing'() {
+		when:
+		ParallelTreeWalker.walkBottomUp(root.resolve('missing'), {} as Consumer, {} as Consumer)
+		then:
+		thrown(UncheckedIOException)
+	}
+
+}
@@ -0,0 +1,42 @@
+package net.pawet.pawgen.utils
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.lang.Void as Should
+import java.nio.channels.Channels
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class ChannelWriterSpec extends Specification {
+
+	@Unroll
+	Should 'encode "#name" written in #chunkSize chars chunks'() {
+		given:
+		var out = new ByteArrayOutputStream()
+		var writer = new ChannelWriter(Channels.newChannel(out))
+		when:
+		text.toList().collate(chunkSize)*.join().each(writer::write)
+		writer.close()
+		then:
+		out.toByteArray() == text.getBytes(UTF_8)
+		where:
+		name            | text                                            | chunkSize
+		'ascii'         | 'test<p>test</p>'                               | 4
+		'split pair'    | 'a😀b😀'                    | 1
+		'mixed'         | 'зараз 😀 ü ' * 20                              | 3
+		'bigger buffer' | ('ó😀' * (ChannelWriter.BUFFER_SIZE / 3 + 7)) | 4096
+	}
+
+	Should 'replace lone surrogate at the end'() {
+		given:
+		var out = new ByteArrayOutputStream()
+		var writer = new ChannelWriter(Channels.newChannel(out))
+		when:
+		writer.write('a\uD83D')
+		writer.close()
+		then:
+		new String(out.toByteArray(), UTF_8) == 'a?'
+	}
+
+}
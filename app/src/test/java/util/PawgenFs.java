@@ -1,6 +1,7 @@
 package util;
 
 import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Feature;
 import com.google.common.jimfs.Jimfs;
 import groovy.lang.Writable;
 import lombok.Getter;
@@ -60,6 +61,11 @@ public class PawgenFs implements AutoCloseable {
 		return create(Configuration.unix().toBuilder().setAttributeViews("basic", "user").build());
 	}
 
+	@SneakyThrows
+	public static PawgenFs unixWithoutLinks() {
+		return create(Configuration.unix().toBuilder().setSupportedFeatures(Feature.SYMBOLIC_LINKS, Feature.SECURE_DIRECTORY_STREAM, Feature.FILE_CHANNEL).build());
+	}
+
 	@SneakyThrows
 	public static PawgenFs win() {
 		return create(Configuration.windows());
@@ -0,0 +1,128 @@
+package net.pawet.pawgen.deployer;
+
+import jakarta.json.Json;
+import net.pawet.pawgen.deployer.deployitem.Content;
+import net.pawet.pawgen.deployer.deployitem.Digest;
+import net.pawet.pawgen.deployer.deployitem.Path;
+
+import java.io.*;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Cloudflare Pages asset upload body: json array of base64 encoded files, generated lazily while http client reads it.
+ * Only one file is opened at a time and it is encoded chunk by chunk, so memory doesn't depend on batch size.
+ */
+final class AssetUploadBody {
+
+	private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder();
+
+	private AssetUploadBody() {
+	}
+
+	/**
+	 * Every send (retry included) reads files from the beginning.
+	 */
+	static <T extends Digest & Content & Path> BodyPublisher publisher(Collection<T> files) {
+		return BodyPublishers.ofInputStream(() -> inputStream(files));
+	}
+
+	static <T extends Digest & Content & Path> InputStream inputStream(Collection<T> files) {
+		var first = new AtomicBoolean(true);
+		var parts = Stream.concat(Stream.concat(
+					Stream.of(bytes("[")),
+					files.stream().map(file -> asset(file, first.getAndSet(false)))),
+				Stream.of(bytes("]")))
+			.iterator();
+		return new ConcatInputStream(parts);
+	}
+
+	private static <T extends Digest & Content & Path> InputStream asset(T file, boolean first) {
+		var is = getMarkSupportedIS(file);
+		var head = (first ? "" : ",")
+			+ "{\"key\":" + Json.createValue(file.getDigest())
+			+ ",\"base64\":true"
+			+ ",\"metadata\":{\"contentType\":" + Json.createValue(CloudflarePagesClient.getContentType(file.getPath(), is)) + "}"
+			+ ",\"value\":\"";
+		return new SequenceInputStream(bytes(head), new SequenceInputStream(new Base64InputStream(is), bytes("\"}")));
+	}
+
+	// BufferedInputStream supports marks, used in java.net.URLConnection#guessContentTypeFromStream()
+	private static InputStream getMarkSupportedIS(Content file) {
+		var is = file.inputStream();
+		return is.markSupported() ? is : new BufferedInputStream(is);
+	}
+
+	private static InputStream bytes(String value) {
+		return new ByteArrayInputStream(value.getBytes(UTF_8));
+	}
+
+	/**
+	 * Encodes source in blocks divisible by 3, so padding appears only at the very end.
+	 */
+	static final class Base64InputStream extends InputStream {
+
+		private static final int CHUNK = 3 * 1024;
+		private final InputStream source;
+		private final byte[] raw = new byte[CHUNK];
+		private final byte[] encoded = new byte[CHUNK / 3 * 4];
+		private int position;
+		private int limit;
+		private boolean eof;
+
+		Base64InputStream(InputStream source) {
+			this.source = source;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? encoded[position++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, limit - position);
+			System.arraycopy(encoded, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		private boolean fill() throws IOException {
+			if (position < limit) {
+				return true;
+			}
+			if (eof) {
+				return false;
+			}
+			int read = source.readNBytes(raw, 0, CHUNK);
+			if (read < CHUNK) {
+				eof = true;
+			}
+			if (read == 0) {
+				return false;
+			}
+			position = 0;
+			limit = read == CHUNK ? BASE64_ENCODER.encode(raw, encoded) : BASE64_ENCODER.encode(Arrays.copyOf(raw, read), encoded);
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			source.close();
+		}
+	}
+
+}
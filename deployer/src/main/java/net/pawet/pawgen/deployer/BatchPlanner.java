@@ -0,0 +1,65 @@
+package net.pawet.pawgen.deployer;
+
+import net.pawet.pawgen.deployer.deployitem.Size;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs files into upload batches limited by both total size and file count, first fit decreasing:
+ * the biggest files are placed first and small ones fill the gaps, so fewer and fuller batches are sent.
+ */
+final class BatchPlanner {
+
+	private final long maxBatchBytes;
+	private final int maxBatchFiles;
+
+	BatchPlanner(long maxBatchBytes, int maxBatchFiles) {
+		if (maxBatchBytes < 1 || maxBatchFiles < 1) {
+			throw new IllegalArgumentException("batch limits have to be positive, bytes: %d, files: %d".formatted(maxBatchBytes, maxBatchFiles));
+		}
+		this.maxBatchBytes = maxBatchBytes;
+		this.maxBatchFiles = maxBatchFiles;
+	}
+
+	/**
+	 * File bigger than the size limit gets its own batch.
+	 */
+	<T extends Size> List<List<T>> plan(Collection<T> files) {
+		var batches = new ArrayList<Batch<T>>();
+		var open = new ArrayList<Batch<T>>(); // batches with space left, in creation order
+		files.stream()
+			.sorted(Comparator.comparingLong(Size::getSizeInBytes).reversed())
+			.forEach(file -> {
+				var batch = open.stream().filter(b -> b.fits(file)).findFirst().orElseGet(() -> {
+					var newBatch = new Batch<T>();
+					batches.add(newBatch);
+					open.add(newBatch);
+					return newBatch;
+				});
+				batch.add(file);
+				if (batch.files.size() >= maxBatchFiles || batch.bytes >= maxBatchBytes) {
+					open.remove(batch);
+				}
+			});
+		return batches.stream().map(b -> b.files).toList();
+	}
+
+	private final class Batch<T extends Size> {
+
+		private final List<T> files = new ArrayList<>();
+		private long bytes;
+
+		boolean fits(T file) {
+			return files.size() < maxBatchFiles && bytes + file.getSizeInBytes() <= maxBatchBytes;
+		}
+
+		void add(T file) {
+			files.add(file);
+			bytes += file.getSizeInBytes();
+		}
+	}
+
+}
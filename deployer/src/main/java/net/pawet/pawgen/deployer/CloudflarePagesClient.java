@@ -14,37 +14,26 @@ import net.pawet.pawgen.deployer.deployitem.Path;
 import java.io.*;
 import java.net.URI;
 import java.net.URLConnection;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest.Builder;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandler;
-import java.time.Clock;
-import java.time.Duration;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import static java.net.http.HttpClient.Redirect.NORMAL;
-import static java.net.http.HttpRequest.BodyPublishers.ofByteArray;
 import static java.net.http.HttpRequest.newBuilder;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 import static net.pawet.pawgen.deployer.DeployerHttpException.errorResponse;
 import static net.pawet.pawgen.deployer.JsonBodyHandler.jsonPublisher;
-import static net.pawet.pawgen.deployer.JsonBodyHandler.toJson;
 
 
 @Slf4j
 public final class CloudflarePagesClient {
 
 	public static final URI BASE_URL = URI.create("https://api.cloudflare.com/client/v4/");
-	private final HttpClient client = HttpClient.newBuilder()
-		.followRedirects(NORMAL)
-		.connectTimeout(Duration.ofMinutes(30))
-		.build();
-
+	private final DeployerTransport transport;
 	private final BodyHandler<Stream<JsonValue>> bodyHandler = JsonBodyHandler.withErrorHandling(CloudflarePagesClient::handleError);
 	@NonNull
 	private final URI baseUrl;
@@ -54,14 +43,15 @@ public final class CloudflarePagesClient {
 	/**
 	 * Create custom token for <a href="https://dash.cloudflare.com/profile/api-tokens">Account\Cloudflare Pages\edit</a>
 	 */
-	public CloudflarePagesClient(String token) {
-		this(BASE_URL, token);
+	public CloudflarePagesClient(@NonNull DeployerTransport transport, @NonNull String token) {
+		this(transport, BASE_URL, token);
 	}
 
-	public CloudflarePagesClient(@NonNull URI baseUrl, @NonNull String token) {
+	public CloudflarePagesClient(@NonNull DeployerTransport transport, @NonNull URI baseUrl, @NonNull String token) {
 		if (!baseUrl.getPath().endsWith("/")) {
 			throw new IllegalArgumentException("uri path have to end with '/' " + baseUrl);
 		}
+		this.transport = transport;
 		this.baseUrl = baseUrl;
 		this.token = token;
 	}
@@ -98,7 +88,7 @@ public final class CloudflarePagesClient {
 		String fetchJwt() {
 			log.debug("Fetch jwt token for '{}'", projectUri);
 			var request = getApiAuthRequestBuilder().uri(projectUri.resolve("upload-token")).GET().build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("cloudflare.upload-token", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject)
 					.findAny()
 					.map(json -> json.getJsonObject("result"))
@@ -118,13 +108,13 @@ public final class CloudflarePagesClient {
 
 		@SneakyThrows
 		public <T extends Digest & Path> String create(Collection<T> files, Content redirectsFile) {
-			var body = createFormDataBody(files, redirectsFile);
+			var boundary = "---------------------------" + UUID.randomUUID();
 			var request = getApiAuthRequestBuilder()
 				.uri(deploymentUri)
-				.header("Content-Type", "multipart/form-data; boundary=" + body.getKey())
-				.POST(ofByteArray(body.getValue()))
+				.header("Content-Type", "multipart/form-data; boundary=" + boundary)
+				.POST(DeploymentFormBody.publisher(boundary, files, redirectsFile))
 				.build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("cloudflare.deployment.create", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject).findAny()
 					.filter(json -> json.getBoolean("success"))
 					.map(json -> json.getJsonObject("result"))
@@ -136,7 +126,7 @@ public final class CloudflarePagesClient {
 		@SneakyThrows
 		public Collection<String> list() {
 			var request = getApiAuthRequestBuilder().uri(deploymentUri).GET().build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("cloudflare.deployment.list", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject).findAny()
 					.map(json -> json.getJsonArray("result"))
 					.stream()
@@ -159,28 +149,39 @@ public final class CloudflarePagesClient {
 			pagesUri = baseUrl.resolve("pages/assets/");
 		}
 
+		/**
+		 * Token is shared by concurrent uploads, only the first one failing with a given token triggers refetch.
+		 */
 		@SneakyThrows
 		public <T> T refreshToken(Callable<T> operation) {
+			String usedJwt = jwt;
 			try {
 				return operation.call();
 			} catch (DeployerHttpException.DeployerErrorResponseHttpException e) {
 				if (e.getCode() == 8000013) { //https://github.com/cloudflare/workers-sdk/blob/89d78c0/packages/wrangler/src/pages/upload.tsx#L225
-					return resetTokenAndRetry(operation);
+					return resetTokenAndRetry(usedJwt, operation);
 				}
 				throw e;
 			} catch (DeployerHttpException e) {
 				if (e.getHttpStatusCode() == 403) {
-					return resetTokenAndRetry(operation);
+					return resetTokenAndRetry(usedJwt, operation);
 				}
 				throw e;
 			}
 		}
 
-		private <T> T resetTokenAndRetry(Callable<T> operation) throws Exception {
-			jwt = null; //force refetch
+		private <T> T resetTokenAndRetry(String usedJwt, Callable<T> operation) throws Exception {
+			invalidateToken(usedJwt);
 			return operation.call();
 		}
 
+		@Synchronized
+		private void invalidateToken(String usedJwt) {
+			if (usedJwt == null || usedJwt.equals(jwt)) {
+				jwt = null; //force refetch
+			}
+		}
+
 		@SneakyThrows
 		public Collection<String> missing(Collection<? extends Digest> digests) {
 			return refreshToken(() -> missingInternal(digests));
@@ -199,7 +200,7 @@ public final class CloudflarePagesClient {
 					generator.writeEnd();
 				}))
 				.build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("cloudflare.asset.check-missing", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject).findAny()
 					.map(json -> json.getJsonArray("result"))
 					.stream()
@@ -227,7 +228,7 @@ public final class CloudflarePagesClient {
 					generator.writeEnd();
 				}))
 				.build();
-			return client.send(request, bodyHandler).body()
+			return transport.send("cloudflare.asset.upsert-hashes", request, bodyHandler).body()
 				.map(JsonValue::asJsonObject)
 				.findAny()
 				.map(json -> json.getBoolean("success"))
@@ -244,26 +245,9 @@ public final class CloudflarePagesClient {
 			var request = getJwtAuthRequestBuilder()
 				.uri(pagesUri.resolve("upload"))
 				.header("Content-Type", "application/json; charset=utf-8")
-				.POST(jsonPublisher(generator -> {
-					generator.writeStartArray();
-					for (var file : files) {
-						generator.writeStartObject()
-							.write("key", file.getDigest())
-							.write("base64", true);
-						try (var is = getMarkSupportedIS(file)) {
-							//get mime first
-							generator.writeStartObject("metadata").write("contentType", getContentType(file.getPath(), is)).writeEnd();
-							//then handle content
-							generator.write("value", asBase64(is));
-						} catch (IOException e) {
-							throw new UncheckedIOException(e);
-						}
-						generator.writeEnd();
-					}
-					generator.writeEnd();
-				}))
+				.POST(AssetUploadBody.publisher(files))
 				.build();
-			return client.send(request, bodyHandler).body()
+			return transport.send("cloudflare.asset.upload", request, bodyHandler).body()
 				.map(JsonValue::asJsonObject)
 				.findAny()
 				.map(json -> json.getBoolean("success"))
@@ -280,66 +264,7 @@ public final class CloudflarePagesClient {
 		}
 	}
 
-	// BufferedInputStream supports marks, used in java.net.URLConnection#guessContentTypeFromStream()
-	private static InputStream getMarkSupportedIS(Content file) {
-		var is = file.inputStream();
-		return is.markSupported() ? is : new BufferedInputStream(is);
-	}
-
-	@SneakyThrows
-	private static String asBase64(InputStream is) {
-		var bos = new ByteArrayOutputStream();
-		try (var base64os = BASE64_ENCODER.wrap(bos)) {
-			is.transferTo(base64os);
-		}
-		return bos.toString();
-	}
-
-	private static <T extends Digest & Path> Entry<String, byte[]> createFormDataBody(Collection<T> files, Content redirectsFile) throws IOException {
-		var boundary = "---------------------------" + UUID.randomUUID();
-		byte[] rnDelim = "\r\n".getBytes();
-		byte[] dashDelim = "--".getBytes();
-		byte[] boundaryDelim = boundary.getBytes();
-		var os = new ByteArrayOutputStream();
-		{ //manifest
-			os.write(dashDelim);
-			os.write(boundaryDelim);
-			os.write(rnDelim);
-			os.write("Content-Disposition: form-data; name=\"manifest\"".getBytes());
-			os.write(rnDelim);
-			os.write(rnDelim);
-			toJson(generator -> {
-				generator.writeStartObject();
-				for (var file : files) {
-					generator.write(file.getPath(), file.getDigest());
-				}
-				generator.writeEnd();
-			}, os);
-			os.write(rnDelim);
-		}
-		if (redirectsFile != null) { //_redirects
-			os.write(dashDelim);
-			os.write(boundaryDelim);
-			os.write(rnDelim);
-			os.write("Content-Disposition: form-data; name=\"_redirects\"; filename=\"_redirects\"".getBytes());
-			os.write(rnDelim);
-			os.write("Content-Type: application/octet-stream".getBytes());
-			os.write(rnDelim);
-			os.write(rnDelim);
-			try (var is = redirectsFile.inputStream()) {
-				is.transferTo(os);
-			}
-			os.write(rnDelim);
-		}
-		{ // end
-			os.write(dashDelim);
-			os.write(boundaryDelim);
-			os.write(dashDelim);
-		}
-		return Map.entry(boundary, os.toByteArray());
-	}
-
-	private static String getContentType(String path, InputStream is) {
+	static String getContentType(String path, InputStream is) {
 		String filename = path.substring(path.lastIndexOf('/') + 1);
 		String mime = URLConnection.guessContentTypeFromName(filename);
 		if (mime != null) {
@@ -356,8 +281,6 @@ public final class CloudflarePagesClient {
 		return "application/octet-stream";
 	}
 
-	public static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder();
-
 	@SuppressWarnings("unchecked")
 	public static <T> HttpResponse.BodySubscriber<T> handleError(HttpResponse.BodyHandler<T> handler, HttpResponse.ResponseInfo resp) {
 		int statusCode = resp.statusCode();
@@ -365,7 +288,7 @@ public final class CloudflarePagesClient {
 			return handler.apply(resp);
 		} else if (statusCode == 429) {
 			return HttpResponse.BodySubscribers.replacing((T) Stream.generate(() -> {
-				throw DeployerHttpException.rateLimit(statusCode, Clock.systemUTC().instant().plusSeconds(60));
+				throw DeployerHttpException.rateLimit(statusCode, resp.headers());
 			}));
 		}
 		return (HttpResponse.BodySubscriber<T>) HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), bytes -> Stream.generate(() -> {
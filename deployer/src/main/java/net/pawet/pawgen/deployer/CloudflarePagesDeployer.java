@@ -12,6 +12,9 @@ import java.net.URI;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.*;
@@ -24,20 +27,56 @@ public class CloudflarePagesDeployer {
 
 	//https://developers.cloudflare.com/pages/platform/limits/#file-size
 	private final static int MAX_FILE_SIZE_IN_BYTES = 25 * 1024 * 1024;
+	//https://github.com/cloudflare/workers-sdk/blob/89d78c0/packages/wrangler/src/pages/constants.ts
+	private final static int MAX_BATCH_FILE_COUNT = 5000;
+	private final static int MAX_HASHES_PER_REQUEST = 5000;
+	private final static long UPLOAD_AHEAD_LINGER_MILLIS = 200;
+	private final static String REDIRECTS_PATH = "/_redirects";
+	public static final int DEFAULT_UPLOAD_CONCURRENCY = 3;
 
 	private final Retrier retrier = new Retrier(Duration.ofSeconds(3), 20);
 
 	private final CloudflarePagesClient.ProjectOperation projectOp;
+	private final BatchPlanner batchPlanner;
+	private final int uploadConcurrency;
+	private final int hashesPerRequest;
+	private final DeployState state;
 
-	public CloudflarePagesDeployer(URI url, String token, String projectName, String accountId) {
-		this.projectOp = createClient(url, token).project(accountId, projectName);
+	public CloudflarePagesDeployer(DeployerTransport transport, URI url, String token, String projectName, String accountId) {
+		this(transport, url, token, projectName, accountId, DEFAULT_UPLOAD_CONCURRENCY);
 	}
 
-	private static CloudflarePagesClient createClient(URI url, String token) {
-		return url == null ? new CloudflarePagesClient(token) : new CloudflarePagesClient(url, token);
+	public CloudflarePagesDeployer(DeployerTransport transport, URI url, String token, String projectName, String accountId, int uploadConcurrency) {
+		this(transport, url, token, projectName, accountId, uploadConcurrency, DeployState.none());
+	}
+
+	public CloudflarePagesDeployer(DeployerTransport transport, URI url, String token, String projectName, String accountId, int uploadConcurrency, DeployState state) {
+		this(transport, url, token, projectName, accountId, uploadConcurrency, state, MAX_BATCH_FILE_COUNT, MAX_HASHES_PER_REQUEST);
+	}
+
+	CloudflarePagesDeployer(DeployerTransport transport, URI url, String token, String projectName, String accountId, int uploadConcurrency, DeployState state, int maxBatchFiles, int hashesPerRequest) {
+		if (uploadConcurrency < 1) {
+			throw new IllegalArgumentException("upload concurrency have to be positive " + uploadConcurrency);
+		}
+		this.projectOp = new CloudflarePagesClient(transport, url == null ? CloudflarePagesClient.BASE_URL : url, token).project(accountId, projectName);
+		this.batchPlanner = new BatchPlanner(MAX_FILE_SIZE_IN_BYTES, maxBatchFiles);
+		this.uploadConcurrency = uploadConcurrency;
+		this.hashesPerRequest = hashesPerRequest;
+		this.state = state;
 	}
 
 	public final <T extends Digest & Content & Path & Size> void deploy(Collection<T> files) {
+		deploy(files, Set.of());
+	}
+
+	/**
+	 * Assets are uploaded as soon as files are offered, deployment is created on completion.
+	 */
+	public final <T extends Digest & Content & Path & Size> DeployPipeline<T> pipeline() {
+		return new UploadAheadPipeline<>();
+	}
+
+	private <T extends Digest & Content & Path & Size> void deploy(Collection<T> files, Set<String> uploadedAhead) {
 		var grouped = files.stream().collect(groupingBy(CloudflarePagesDeployer::groupingFiles));
 		var invalidFiles = grouped.getOrDefault("invalid", List.of());
 		if (!invalidFiles.isEmpty()) {
@@ -48,11 +87,11 @@ public class CloudflarePagesDeployer {
 		}
 		var fileRes = grouped.get("files");
 		var redirectFile = grouped.getOrDefault("redirect", List.of()).stream().findAny().orElse(null);
-		deploy(fileRes, redirectFile);
+		deploy(fileRes, redirectFile, uploadedAhead);
 	}
 
 	private static <T extends Path & Size> String groupingFiles(T file) {
-		if (file.getPath().equals("/_redirects")) {
+		if (file.getPath().equals(REDIRECTS_PATH)) {
 			return "redirect";
 		}
 		if (file.getSizeInBytes() > MAX_FILE_SIZE_IN_BYTES) {
@@ -61,45 +100,91 @@ public class CloudflarePagesDeployer {
 		return "files";
 	}
 
-	@SneakyThrows
 	final <T extends Digest & Content & Path & Size> void deploy(Collection<T> files, T redirectsFile) {
+		deploy(files, redirectsFile, Set.of());
+	}
+
+	@SneakyThrows
+	private <T extends Digest & Content & Path & Size> void deploy(Collection<T> files, T redirectsFile, Set<String> uploadedAhead) {
 		log.debug("Deploying {} files", files.size());
+		var manifestHash = DeployState.manifestHash(redirectsFile == null ? files : concat(files, redirectsFile));
+		if (state.isUnchanged(manifestHash)) { // deployed anyway, remote might be rolled back meanwhile
+			log.info("Nothing changed since last deploy of {} files, nothing will be uploaded", files.size());
+		}
 
+		var journal = state.journal(manifestHash);
+		journal.uploaded(uploadedAhead);
 		var assetOp = projectOp.asset();
-		var missing = missing(assetOp, files);
-		uploadInBatches(assetOp, missing);
+		var missing = missing(assetOp, files, journal.getUploaded());
+		uploadInBatches(assetOp, missing, journal);
 
-		retrier.exec(() -> createDeployment(files, redirectsFile));
-		if (missing.size() != 0) {
-			retrier.exec(() -> upsertFiles(missing));
+		if (journal.getDeployId().isEmpty()) {
+			journal.deployId(retrier.exec(() -> createDeployment(files, redirectsFile)));
+		} else {
+			log.info("Deployment {} already created", journal.getDeployId().get());
 		}
+		upsertFiles(assetOp, withUploadedBefore(missing, files, journal.getUploaded()));
+		journal.complete();
+		state.save(manifestHash, files.stream().map(Digest::getDigest).toList());
 	}
 
-	private <T extends Digest & Content & Path & Size> void uploadInBatches(AssetOperation assetOp, Collection<T> files) {
-		long batchSize = 0;
-		var batch = new ArrayList<T>();
-		for (var file : files) {
-			batchSize += file.getSizeInBytes();
-			if (batchSize >= MAX_FILE_SIZE_IN_BYTES) {
-				log.info("Uploading files: {}", batch.stream().map(Path::getPath).collect(joining(", ")));
-				retrier.exec(() -> assetOp.upload(batch));
-				batchSize = file.getSizeInBytes();
-				batch.clear();
-			}
-			batch.add(file);
+	/**
+	 * Files uploaded by interrupted deploy aren't missing anymore, yet their hashes have to be upserted.
+	 */
+	private static <T extends Digest> List<T> withUploadedBefore(List<T> missing, Collection<T> files, Set<String> uploadedBefore) {
+		if (uploadedBefore.isEmpty()) {
+			return missing;
 		}
+		var all = new LinkedHashMap<String, T>();
+		missing.forEach(file -> all.put(file.getDigest(), file));
+		files.stream().filter(file -> uploadedBefore.contains(file.getDigest())).forEach(file -> all.putIfAbsent(file.getDigest(), file));
+		return List.copyOf(all.values());
 	}
 
-	private <T extends Digest & Path> void createDeployment(Collection<T> files, Content redirectsFile) {
+	private static <T> List<T> concat(Collection<T> files, T file) {
+		var all = new ArrayList<T>(files.size() + 1);
+		all.addAll(files);
+		all.add(file);
+		return all;
+	}
+
+	/**
+	 * Uploads up to uploadConcurrency batches at once, all of them share asset upload token and every batch is retried on its own.
+	 */
+	private <T extends Digest & Content & Path & Size> void uploadInBatches(AssetOperation assetOp, Collection<T> files, DeployJournal journal) {
+		var batches = batchPlanner.plan(files);
+		if (!batches.isEmpty()) {
+			log.info("Uploading {} files in {} batches", files.size(), batches.size());
+		}
+		inParallel("upload", batches, batch -> uploadBatch(assetOp, batch, journal));
+	}
+
+	private <T extends Digest & Content & Path & Size> Void uploadBatch(AssetOperation assetOp, List<T> batch, DeployJournal journal) {
+		log.info("Uploading files: {}", batch.stream().map(Path::getPath).collect(joining(", ")));
+		if (!assetOp.upload(batch)) {
+			throw DeployerHttpException.generic(-1, "Upload of %d files wasn't successful".formatted(batch.size()));
+		}
+		journal.uploaded(batch.stream().map(Digest::getDigest).toList());
+		return null;
+	}
+
+	private <T extends Digest & Path> String createDeployment(Collection<T> files, Content redirectsFile) {
 		var id = projectOp.deployment().create(files, redirectsFile);
 		log.info("Created deployment {}", id);
+		return id;
+	}
+
+	private void upsertFiles(AssetOperation assetOp, List<? extends Digest> digests) {
+		inParallel("upsert", chunks(digests, hashesPerRequest), chunk -> upsertChunk(assetOp, chunk));
+		if (!digests.isEmpty()) {
+			log.info("Deployed {} files", digests.size());
+		}
 	}
 
-	private void upsertFiles(Collection<? extends Digest> digests) {
+	private Void upsertChunk(AssetOperation assetOp, List<? extends Digest> digests) {
 		try {
-			if (projectOp.asset().upsert(digests)) {
-				log.info("Deployed {} files", digests.size());
-				return;
+			if (assetOp.upsert(digests)) {
+				return null;
 			}
 			log.info("Can't update file hashes, files have to be uploaded next time");
 		} catch (Exception e) {
@@ -108,12 +193,145 @@ public class CloudflarePagesDeployer {
 		throw DeployerHttpException.rateLimit(-1, Clock.systemUTC().instant().plusSeconds(1));
 	}
 
-	private <T extends Digest> Collection<T> missing(AssetOperation assetOp, Collection<T> files) {
-		var unique = files.stream().collect(toMap(Digest::getDigest, identity(), (t, __) -> t));
-		return retrier.exec(() -> assetOp.missing(unique.values())).stream()
+	/**
+	 * Only digests not deployed nor uploaded by interrupted deploy before are checked with remote.
+	 */
+	private <T extends Digest> List<T> missing(AssetOperation assetOp, Collection<T> files, Set<String> uploadedBefore) {
+		var deployed = state.getDeployedDigests();
+		var unique = files.stream()
+			.filter(file -> !deployed.contains(file.getDigest()) && !uploadedBefore.contains(file.getDigest()))
+			.collect(toMap(Digest::getDigest, identity(), (t, __) -> t));
+		if (!deployed.isEmpty() || !uploadedBefore.isEmpty()) {
+			log.info("Checking {} digests not deployed before", unique.size());
+		}
+		return inParallel("check-missing", chunks(List.copyOf(unique.values()), hashesPerRequest), assetOp::missing).stream()
+			.flatMap(Collection::stream)
 			.map(unique::get)
 			.filter(Objects::nonNull)
 			.toList();
 	}
 
+	private static <T> List<List<T>> chunks(List<T> values, int size) {
+		return IntStream.range(0, (values.size() + size - 1) / size)
+			.mapToObj(i -> values.subList(i * size, Math.min(values.size(), (i + 1) * size)))
+			.toList();
+	}
+
+	/**
+	 * Runs up to uploadConcurrency tasks at once, every task is retried on its own. Results are in tasks order.
+	 */
+	@SneakyThrows
+	private <I, R> List<R> inParallel(String name, List<I> inputs, Function<I, R> task) {
+		if (inputs.isEmpty()) {
+			return List.of();
+		}
+		var executor = Executors.newFixedThreadPool(Math.min(uploadConcurrency, inputs.size()), Thread.ofVirtual().name("cloudflare-" + name + "-", 0).factory());
+		try {
+			var futures = inputs.stream()
+				.map(input -> executor.submit(() -> retrier.exec(() -> task.apply(input))))
+				.toList();
+			var results = new ArrayList<R>(futures.size());
+			for (var future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					throw e.getCause();
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Offered files are collected till {@link #UPLOAD_AHEAD_LINGER_MILLIS} passes without a new one or a batch is full,
+	 * then they are checked with remote and missing ones uploaded. Uploads ahead are best effort, failed ones are
+	 * found missing again on completion. Files deployed before and duplicated digests are skipped.
+	 */
+	private final class UploadAheadPipeline<T extends Digest & Content & Path & Size> implements DeployPipeline<T> {
+
+		private final BlockingQueue<T> offered = new LinkedBlockingQueue<>();
+		private final Set<String> seen = ConcurrentHashMap.newKeySet();
+		private final Set<String> uploaded = ConcurrentHashMap.newKeySet();
+		private final Queue<Future<?>> uploads = new ConcurrentLinkedQueue<>();
+		private final AssetOperation assetOp = projectOp.asset();
+		private final ExecutorService executor = Executors.newFixedThreadPool(uploadConcurrency, Thread.ofVirtual().name("cloudflare-upload-ahead-", 0).factory());
+		private final Thread collector = Thread.ofVirtual().name("cloudflare-upload-ahead").start(this::collect);
+		private volatile boolean completing;
+
+		@Override
+		public void offer(T file) {
+			if (completing || REDIRECTS_PATH.equals(file.getPath()) || file.getSizeInBytes() > MAX_FILE_SIZE_IN_BYTES
+				|| state.getDeployedDigests().contains(file.getDigest()) || !seen.add(file.getDigest())) {
+				return;
+			}
+			offered.add(file);
+		}
+
+		private void collect() {
+			var pending = new ArrayList<T>();
+			long pendingBytes = 0;
+			try {
+				while (!completing || !offered.isEmpty()) {
+					var file = offered.poll(UPLOAD_AHEAD_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+					if (file != null) {
+						pending.add(file);
+						pendingBytes += file.getSizeInBytes();
+					}
+					if (!pending.isEmpty() && (file == null || pending.size() >= hashesPerRequest || pendingBytes >= MAX_FILE_SIZE_IN_BYTES)) {
+						submit(List.copyOf(pending));
+						pending.clear();
+						pendingBytes = 0;
+					}
+				}
+				if (!pending.isEmpty()) {
+					submit(List.copyOf(pending));
+				}
+			} catch (InterruptedException e) {
+				log.debug("Upload ahead stopped, {} files not uploaded", pending.size() + offered.size());
+			}
+		}
+
+		private void submit(List<T> files) {
+			uploads.add(executor.submit(() -> upload(files)));
+		}
+
+		private void upload(List<T> files) {
+			try {
+				var byDigest = files.stream().collect(toMap(Digest::getDigest, identity()));
+				var missing = retrier.exec(() -> assetOp.missing(files)).stream()
+					.map(byDigest::get)
+					.filter(Objects::nonNull)
+					.toList();
+				for (var batch : batchPlanner.plan(missing)) {
+					retrier.exec(() -> uploadBatch(assetOp, batch, DeployJournal.none()));
+					batch.forEach(file -> uploaded.add(file.getDigest()));
+				}
+				log.debug("Uploaded ahead {} of {} files", missing.size(), files.size());
+			} catch (Exception e) {
+				log.warn("Can't upload ahead {} files, they will be checked again on deploy", files.size(), e);
+			}
+		}
+
+		@Override
+		@SneakyThrows
+		public void complete(Collection<T> files) {
+			completing = true;
+			collector.join();
+			for (Future<?> upload; (upload = uploads.poll()) != null; ) {
+				upload.get();
+			}
+			log.info("Uploaded {} files ahead of deploy", uploaded.size());
+			deploy(files, Set.copyOf(uploaded));
+		}
+
+		@Override
+		public void close() {
+			completing = true;
+			collector.interrupt();
+			executor.shutdownNow();
+		}
+	}
+
 }
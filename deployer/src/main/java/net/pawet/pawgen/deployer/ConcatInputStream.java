@@ -0,0 +1,67 @@
+package net.pawet.pawgen.deployer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Iterator;
+
+/**
+ * Concatenates parts produced lazily by iterator, used to generate request bodies while they are sent.
+ * Unlike {@link SequenceInputStream} doesn't open remaining parts on close, as a part may open a file.
+ */
+final class ConcatInputStream extends InputStream {
+
+	private final Iterator<InputStream> parts;
+	private InputStream current;
+
+	ConcatInputStream(Iterator<InputStream> parts) {
+		this.parts = parts;
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (next()) {
+			int b = current.read();
+			if (b != -1) {
+				return b;
+			}
+			closeCurrent();
+		}
+		return -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (next()) {
+			int n = current.read(b, off, len);
+			if (n > 0) {
+				return n;
+			}
+			closeCurrent();
+		}
+		return -1;
+	}
+
+	private boolean next() {
+		if (current == null && parts.hasNext()) {
+			current = parts.next();
+		}
+		return current != null;
+	}
+
+	private void closeCurrent() throws IOException {
+		try (var is = current) {
+			current = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (current != null) {
+			closeCurrent();
+		}
+	}
+}
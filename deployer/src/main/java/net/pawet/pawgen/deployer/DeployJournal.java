@@ -0,0 +1,115 @@
+package net.pawet.pawgen.deployer;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only journal of deploy in progress: target, manifest hash, remote deploy id and uploaded digests.
+ * Every record is written as soon as remote confirms it, so deploy interrupted by a crash is continued by the next run
+ * of the same files instead of starting over. Journal of other files is discarded, finished deploy removes it.
+ */
+@Slf4j
+public final class DeployJournal {
+
+	private static final String HEADER = "pawgen-deploy-journal 1";
+	private static final String TARGET = "target ";
+	private static final String MANIFEST = "manifest ";
+	private static final String DEPLOY = "deploy ";
+	private static final String UPLOADED = "uploaded ";
+
+	private final Path file;
+	private final Set<String> uploaded = ConcurrentHashMap.newKeySet();
+	private volatile String deployId;
+
+	private DeployJournal(Path file) {
+		this.file = file;
+	}
+
+	public static DeployJournal none() {
+		return new DeployJournal(null);
+	}
+
+	@SneakyThrows
+	static DeployJournal open(Path file, String target, String manifestHash) {
+		var previous = new DeployJournal(file);
+		if (Files.isRegularFile(file) && previous.read(target, manifestHash)) {
+			log.info("Resuming deploy to '{}', deploy id: {}, already uploaded {} files", target, previous.deployId, previous.uploaded.size());
+			return previous;
+		}
+		Files.deleteIfExists(file);
+		var journal = new DeployJournal(file);
+		journal.append(HEADER, TARGET + target, MANIFEST + manifestHash);
+		return journal;
+	}
+
+	private boolean read(String target, String manifestHash) {
+		try (var lines = Files.lines(file, UTF_8)) {
+			var it = lines.iterator();
+			if (!it.hasNext() || !HEADER.equals(it.next())
+				|| !it.hasNext() || !(TARGET + target).equals(it.next())
+				|| !it.hasNext() || !(MANIFEST + manifestHash).equals(it.next())) {
+				log.info("Previous deploy to '{}' was of other files, starting over", target);
+				return false;
+			}
+			it.forEachRemaining(line -> {
+				if (line.startsWith(DEPLOY)) {
+					deployId = line.substring(DEPLOY.length());
+				} else if (line.startsWith(UPLOADED)) {
+					uploaded.add(line.substring(UPLOADED.length()));
+				}
+			});
+			return true;
+		} catch (IOException | RuntimeException e) {
+			log.warn("Deploy journal {} is broken, starting over", file, e);
+			return false;
+		}
+	}
+
+	public Optional<String> getDeployId() {
+		return Optional.ofNullable(deployId);
+	}
+
+	public Set<String> getUploaded() {
+		return Collections.unmodifiableSet(uploaded);
+	}
+
+	public void deployId(String deployId) {
+		if (!deployId.equals(this.deployId)) {
+			this.deployId = deployId;
+			append(DEPLOY + deployId);
+		}
+	}
+
+	public void uploaded(Collection<String> digests) {
+		append(digests.stream().filter(uploaded::add).map(UPLOADED::concat).toArray(String[]::new));
+	}
+
+	/**
+	 * Deploy is done, nothing to resume.
+	 */
+	@SneakyThrows
+	public void complete() {
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@SneakyThrows
+	private synchronized void append(String... records) {
+		if (file == null || records.length == 0) {
+			return;
+		}
+		Files.createDirectories(file.getParent());
+		Files.write(file, Arrays.asList(records), UTF_8, CREATE, APPEND, WRITE);
+	}
+
+}
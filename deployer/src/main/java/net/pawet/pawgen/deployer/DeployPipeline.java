@@ -0,0 +1,69 @@
+package net.pawet.pawgen.deployer;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Deploy fed while site is rendered: every file is offered once it is written and digested, so content addressed
+ * uploads may start before rendering ends. Offered files are only a hint, the final deploy is made with the complete list.
+ */
+public interface DeployPipeline<T> extends AutoCloseable {
+
+	/**
+	 * File is written and digested, it may be uploaded ahead of deploy. Called from render threads, must not block.
+	 */
+	void offer(T file);
+
+	/**
+	 * Deploys all files once uploads started ahead are done.
+	 */
+	void complete(Collection<T> files);
+
+	/**
+	 * Stops uploads in flight, pipeline isn't usable afterwards.
+	 */
+	@Override
+	void close();
+
+	default <R> DeployPipeline<R> map(Function<? super R, ? extends T> mapper) {
+		var pipeline = this;
+		return new DeployPipeline<>() {
+			@Override
+			public void offer(R file) {
+				pipeline.offer(mapper.apply(file));
+			}
+
+			@Override
+			public void complete(Collection<R> files) {
+				pipeline.complete(files.stream().<T>map(mapper).toList());
+			}
+
+			@Override
+			public void close() {
+				pipeline.close();
+			}
+		};
+	}
+
+	/**
+	 * Nothing is uploaded ahead, all files are deployed on completion.
+	 */
+	static <T> DeployPipeline<T> deferred(Consumer<Collection<T>> deploy) {
+		return new DeployPipeline<>() {
+			@Override
+			public void offer(T file) {
+			}
+
+			@Override
+			public void complete(Collection<T> files) {
+				deploy.accept(files);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+}
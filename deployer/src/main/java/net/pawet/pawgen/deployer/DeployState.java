@@ -0,0 +1,147 @@
+package net.pawet.pawgen.deployer;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import net.pawet.pawgen.deployer.deployitem.Digest;
+import net.pawet.pawgen.deployer.deployitem.Path;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Digests and manifest hash of the last successful deploy to a target (netlify site, cloudflare project), kept on disk.
+ * Deployers always create deploy with the complete manifest, yet check and upload only digests deployed never before.
+ * Remote may lose files behind our back, so state older than verify interval is ignored and the next deploy checks everything.
+ */
+@Slf4j
+public final class DeployState {
+
+	private static final String HEADER = "pawgen-deploy-state 1";
+	private static final String STATE_SUFFIX = ".state";
+	private static final String JOURNAL_SUFFIX = ".journal";
+	public static final Duration DEFAULT_VERIFY_INTERVAL = Duration.ofDays(1);
+
+	private final java.nio.file.Path file;
+	private final String target;
+	private final Clock clock;
+	private final Instant verified;
+	private final String manifestHash;
+	private final Set<String> digests;
+	private final boolean due;
+
+	private DeployState(java.nio.file.Path file, String target, Clock clock, Instant verified, String manifestHash, Set<String> digests, boolean due) {
+		this.file = file;
+		this.target = target;
+		this.clock = clock;
+		this.verified = verified;
+		this.manifestHash = manifestHash;
+		this.digests = digests;
+		this.due = due;
+	}
+
+	/**
+	 * Nothing is remembered, every deploy checks all files with remote.
+	 */
+	public static DeployState none() {
+		return new DeployState(null, null, Clock.systemUTC(), Instant.MIN, null, Set.of(), true);
+	}
+
+	public static DeployState load(java.nio.file.Path dir, String target) {
+		return load(dir, target, Clock.systemUTC(), DEFAULT_VERIFY_INTERVAL);
+	}
+
+	public static DeployState load(java.nio.file.Path dir, String target, Clock clock, Duration verifyInterval) {
+		if (dir == null) {
+			return none();
+		}
+		var file = dir.resolve(target.replaceAll("[^A-Za-z0-9._-]", "_") + STATE_SUFFIX);
+		if (Files.notExists(file)) {
+			return new DeployState(file, target, clock, Instant.MIN, null, Set.of(), true);
+		}
+		try (var lines = Files.lines(file, UTF_8)) {
+			var it = lines.iterator();
+			if (!it.hasNext() || !HEADER.equals(it.next())) {
+				log.warn("Unknown deploy state format {}, all files will be checked", file);
+				return new DeployState(file, target, clock, Instant.MIN, null, Set.of(), true);
+			}
+			var verified = Instant.ofEpochMilli(Long.parseLong(it.next()));
+			var manifestHash = it.next();
+			var digests = new HashSet<String>();
+			it.forEachRemaining(digests::add);
+			boolean due = verified.plus(verifyInterval).isBefore(clock.instant());
+			if (due) {
+				log.info("Deploy state of '{}' verified at {}, all files will be checked", target, verified);
+			}
+			return new DeployState(file, target, clock, verified, manifestHash, due ? Set.of() : digests, due);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Deploy state {} is broken, all files will be checked", file, e);
+			return new DeployState(file, target, clock, Instant.MIN, null, Set.of(), true);
+		}
+	}
+
+	/**
+	 * @return true if the same files were deployed last time and state doesn't need verification
+	 */
+	public boolean isUnchanged(String manifestHash) {
+		return !due && manifestHash.equals(this.manifestHash);
+	}
+
+	/**
+	 * @return digests already deployed, empty if state needs verification
+	 */
+	public Set<String> getDeployedDigests() {
+		return Collections.unmodifiableSet(digests);
+	}
+
+	/**
+	 * Journal of deploy of the given files, kept beside the state.
+	 */
+	public DeployJournal journal(String manifestHash) {
+		if (file == null) {
+			return DeployJournal.none();
+		}
+		var name = file.getFileName().toString();
+		return DeployJournal.open(file.resolveSibling(name.substring(0, name.length() - STATE_SUFFIX.length()) + JOURNAL_SUFFIX), target, manifestHash);
+	}
+
+	/**
+	 * Records successful deploy, verification time is moved only if this deploy checked all files.
+	 */
+	@SneakyThrows
+	public void save(String manifestHash, Collection<String> digests) {
+		if (file == null) {
+			return;
+		}
+		var verifiedAt = due ? clock.instant() : verified;
+		Files.createDirectories(file.getParent());
+		var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(tmp, (Iterable<String>) Stream.concat(
+			Stream.of(HEADER, String.valueOf(verifiedAt.toEpochMilli()), manifestHash),
+			digests.stream().distinct()
+		)::iterator, UTF_8);
+		Files.move(tmp, file, REPLACE_EXISTING);
+		log.debug("Stored deploy state with {} digests to {}", digests.size(), file);
+	}
+
+	/**
+	 * Hash of sorted path and digest pairs, equal only for the same site content.
+	 */
+	@SneakyThrows
+	public static <T extends Digest & Path> String manifestHash(Collection<T> files) {
+		var md = MessageDigest.getInstance("SHA-256");
+		files.stream()
+			.sorted(Comparator.comparing(Path::getPath))
+			.forEachOrdered(file -> md.update((file.getPath() + '\0' + file.getDigest() + '\n').getBytes(UTF_8)));
+		return HexFormat.of().formatHex(md.digest());
+	}
+
+}
@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.ToString;
 
 import java.net.http.HttpHeaders;
+import java.time.Clock;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 
@@ -15,11 +16,14 @@ public class DeployerHttpException extends RuntimeException {
 
 	private final int httpStatusCode;
 
+	/**
+	 * Reset is taken from Retry-After or X-RateLimit-Reset, {@link Instant#MIN} if remote didn't tell
+	 */
 	static DeployerHttpException rateLimit(int statusCode, HttpHeaders headers) {
-		return new DeployerRateLimitHttpException(statusCode,
-			headers.firstValueAsLong("X-RateLimit-Remaining").orElse(-1),
-			headers.firstValueAsLong("X-RateLimit-Limit").orElse(-1),
-			headers.firstValue("X-RateLimit-Reset").map(Long::valueOf).map(Instant::ofEpochSecond).orElse(Instant.MIN));
+		var now = Clock.systemUTC().instant();
+		var rateLimit = RequestScheduler.RateLimit.of(headers, now);
+		var reset = rateLimit.blockedUntil().isAfter(now) ? rateLimit.blockedUntil() : rateLimit.reset().orElse(Instant.MIN);
+		return new DeployerRateLimitHttpException(statusCode, rateLimit.remaining().orElse(-1), rateLimit.limit().orElse(-1), reset);
 	}
 
 	static DeployerHttpException rateLimit(int statusCode, Instant reset) {
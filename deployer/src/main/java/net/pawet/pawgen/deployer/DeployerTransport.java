@@ -0,0 +1,159 @@
+package net.pawet.pawgen.deployer;
+
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static java.net.http.HttpClient.Redirect.NORMAL;
+
+/**
+ * Http transport shared by deploy clients: one HTTP/2 connection per host multiplexes all concurrent requests,
+ * so many small uploads don't pay TCP/TLS setup each. Requests are timed per endpoint and paced per host by
+ * {@link RequestScheduler}, so all client operations share what is learnt about remote rate limits.
+ */
+@Slf4j
+public final class DeployerTransport implements AutoCloseable {
+
+	public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(31); //netlify sets 30s per connection
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+	private final RequestScheduler scheduler = new RequestScheduler();
+	private final HttpClient client;
+
+	public DeployerTransport() {
+		this(DEFAULT_CONNECT_TIMEOUT);
+	}
+
+	public DeployerTransport(@NonNull Duration connectTimeout) {
+		this.client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_2)
+			.followRedirects(NORMAL)
+			.connectTimeout(connectTimeout)
+			.executor(executor)
+			.build();
+	}
+
+	/**
+	 * Blocking send, the calling thread waits while the request shares connection with others in flight.
+	 */
+	@SneakyThrows
+	public <T> HttpResponse<T> send(String endpoint, HttpRequest request, BodyHandler<T> bodyHandler) {
+		var latency = latency(endpoint);
+		var host = scheduler.acquire(request.uri().getHost());
+		long start = System.nanoTime();
+		int statusCode = -1;
+		HttpHeaders headers = null;
+		try {
+			var response = client.send(request, bodyHandler);
+			statusCode = response.statusCode();
+			headers = response.headers();
+			return response;
+		} finally {
+			latency.record(System.nanoTime() - start);
+			host.release(statusCode, headers);
+		}
+	}
+
+	private Latency latency(String endpoint) {
+		return latencies.computeIfAbsent(endpoint, __ -> new Latency());
+	}
+
+	public Map<String, Latency> getLatencies() {
+		return new TreeMap<>(latencies);
+	}
+
+	@Override
+	public String toString() {
+		return latencies.entrySet().stream()
+			.sorted(Map.Entry.comparingByKey())
+			.map(e -> e.getKey() + ": " + e.getValue())
+			.collect(Collectors.joining("; "));
+	}
+
+	@Override
+	public void close() {
+		if (!latencies.isEmpty()) {
+			log.info("Deployer requests latency {}", this);
+			log.info("Deployer requests throttling {}", scheduler);
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Histogram with power of two buckets in milliseconds, accurate enough for spotting slow endpoints.
+	 */
+	public static final class Latency {
+
+		private static final int BUCKETS = 24; // up to ~2.3 hours
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		Latency() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			long millis = Duration.ofNanos(nanos).toMillis();
+			int bucket = millis == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+			buckets[bucket].increment();
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public Duration getMean() {
+			long count = getCount();
+			return count == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos.sum() / count);
+		}
+
+		public Duration getMax() {
+			return Duration.ofNanos(maxNanos.get());
+		}
+
+		/**
+		 * @return upper bound of the bucket the percentile falls in
+		 */
+		public Duration percentile(double percentile) {
+			long threshold = (long) Math.ceil(getCount() * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets[i].sum();
+				if (seen >= threshold && seen > 0) {
+					return Duration.ofMillis(1L << i);
+				}
+			}
+			return getMax();
+		}
+
+		@Override
+		public String toString() {
+			return "count %d, mean %dms, p50 <%dms, p99 <%dms, max %dms".formatted(getCount(), getMean().toMillis(),
+				percentile(50).toMillis(), percentile(99).toMillis(), getMax().toMillis());
+		}
+	}
+
+}
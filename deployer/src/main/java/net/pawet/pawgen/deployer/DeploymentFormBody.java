@@ -0,0 +1,66 @@
+package net.pawet.pawgen.deployer;
+
+import jakarta.json.Json;
+import net.pawet.pawgen.deployer.deployitem.Content;
+import net.pawet.pawgen.deployer.deployitem.Digest;
+import net.pawet.pawgen.deployer.deployitem.Path;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Cloudflare Pages deployment multipart/form-data body: manifest (path to digest json) and optional _redirects file.
+ * Manifest is generated entry by entry and _redirects is read while sending, so body is never held in memory.
+ */
+final class DeploymentFormBody {
+
+	private static final String RN = "\r\n";
+
+	private DeploymentFormBody() {
+	}
+
+	/**
+	 * Every send (retry included) generates body from the beginning.
+	 */
+	static <T extends Digest & Path> BodyPublisher publisher(String boundary, Collection<T> files, Content redirectsFile) {
+		return BodyPublishers.ofInputStream(() -> inputStream(boundary, files, redirectsFile));
+	}
+
+	static <T extends Digest & Path> InputStream inputStream(String boundary, Collection<T> files, Content redirectsFile) {
+		var parts = new ArrayList<Supplier<InputStream>>();
+		parts.add(() -> bytes("--" + boundary + RN + "Content-Disposition: form-data; name=\"manifest\"" + RN + RN));
+		parts.add(() -> manifest(files));
+		parts.add(() -> bytes(RN));
+		if (redirectsFile != null) {
+			parts.add(() -> bytes("--" + boundary + RN
+				+ "Content-Disposition: form-data; name=\"_redirects\"; filename=\"_redirects\"" + RN
+				+ "Content-Type: application/octet-stream" + RN + RN));
+			parts.add(redirectsFile::inputStream);
+			parts.add(() -> bytes(RN));
+		}
+		parts.add(() -> bytes("--" + boundary + "--"));
+		return new ConcatInputStream(parts.stream().map(Supplier::get).iterator());
+	}
+
+	private static <T extends Digest & Path> InputStream manifest(Collection<T> files) {
+		var first = new AtomicBoolean(true);
+		var entries = files.stream()
+			.map(file -> (first.getAndSet(false) ? "" : ",") + Json.createValue(file.getPath()) + ":" + Json.createValue(file.getDigest()))
+			.map(DeploymentFormBody::bytes);
+		return new ConcatInputStream(Stream.concat(Stream.concat(Stream.of(bytes("{")), entries), Stream.of(bytes("}"))).iterator());
+	}
+
+	private static InputStream bytes(String value) {
+		return new ByteArrayInputStream(value.getBytes(UTF_8));
+	}
+
+}
@@ -9,8 +9,8 @@ import jakarta.json.stream.JsonParserFactory;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.http.HttpRequest.BodyPublisher;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
@@ -80,13 +80,15 @@ final class JsonBodyHandler implements BodyHandler<Stream<JsonValue>> {
 
 	private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
 
+	/**
+	 * Json is generated while request is sent, every send (retry included) runs consumer again.
+	 * Body length isn't known upfront, so it goes as HTTP/2 data frames or chunked in HTTP/1.1.
+	 */
 	public static BodyPublisher jsonPublisher(Consumer<JsonGenerator> consumer) {
-		var os = new ByteArrayOutputStream();
-		toJson(consumer, os);
-		return BodyPublishers.ofByteArray(os.toByteArray());
+		return BodyPublishers.ofInputStream(() -> new PipedWriterInputStream(os -> toJson(consumer, os)));
 	}
 
-	public static void toJson(Consumer<JsonGenerator> consumer, ByteArrayOutputStream os) {
+	public static void toJson(Consumer<JsonGenerator> consumer, OutputStream os) {
 		try (var generator = JSON_PROVIDER.createGenerator(os)) {
 			consumer.accept(generator);
 		}
@@ -12,18 +12,15 @@ import net.pawet.pawgen.deployer.deployitem.Path;
 
 import java.io.ByteArrayInputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.Builder;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandler;
-import java.time.Duration;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import static java.net.http.HttpClient.Redirect.NORMAL;
 import static java.net.http.HttpRequest.BodyPublishers.noBody;
 import static java.net.http.HttpRequest.BodyPublishers.ofInputStream;
 import static java.net.http.HttpRequest.newBuilder;
@@ -39,23 +36,20 @@ import static net.pawet.pawgen.deployer.JsonBodyHandler.jsonPublisher;
 public final class NetlifyClient {
 
 	public static final URI NETLIFY_BASE_URL = URI.create("https://api.netlify.com/api/v1/");
-	private final HttpClient client = HttpClient.newBuilder()
-		.followRedirects(NORMAL)
-		.connectTimeout(Duration.ofSeconds(31)) //netlify sets 30s per connection
-		.build();
-
+	private final DeployerTransport transport;
 	private final URI baseUrl;
 	private final BodyHandler<Stream<JsonValue>> bodyHandler = JsonBodyHandler.withErrorHandling(NetlifyClient::handleError);
 	private final Supplier<Builder> requestFactory;
 
-	public NetlifyClient(String accessToken) {
-		this(NETLIFY_BASE_URL, accessToken);
+	public NetlifyClient(DeployerTransport transport, String accessToken) {
+		this(transport, NETLIFY_BASE_URL, accessToken);
 	}
 
-	public NetlifyClient(URI baseUrl, String accessToken) {
+	public NetlifyClient(@NonNull DeployerTransport transport, URI baseUrl, String accessToken) {
 		if (!baseUrl.getPath().endsWith("/")) {
 			throw new IllegalArgumentException("uri path have to end with '/' " + baseUrl);
 		}
+		this.transport = transport;
 		this.baseUrl = baseUrl;
 		this.requestFactory = newBuilder().header("Authorization", "Bearer " + accessToken).setHeader("User-Agent", "url/7.68.0")::copy;
 	}
@@ -79,7 +73,7 @@ public final class NetlifyClient {
 		@SneakyThrows
 		public Optional<JsonObject> find() {
 			var request = requestFactory.get().uri(deployUri).GET().build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("netlify.deploy.find", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject).findAny();
 			}
 		}
@@ -87,7 +81,7 @@ public final class NetlifyClient {
 		@SneakyThrows
 		public JsonObject cancel() {
 			var request = requestFactory.get().uri(deployUri.resolve("cancel")).POST(noBody()).build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("netlify.deploy.cancel", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject).findAny().orElseThrow();
 			}
 		}
@@ -100,7 +94,7 @@ public final class NetlifyClient {
 				.header("Content-Type", "application/octet-stream")
 				.PUT(ofInputStream(file::inputStream))
 				.build();
-			return client.send(request, bodyHandler).body().findAny()
+			return transport.send("netlify.deploy.upload", request, bodyHandler).body().findAny()
 				.map(JsonValue::asJsonObject)
 				.map(json -> json.getJsonNumber("size"))
 				.map(JsonNumber::longValue)
@@ -134,7 +128,7 @@ public final class NetlifyClient {
 					generator.writeEnd();
 				}))
 				.build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("netlify.site.deploy", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject).findAny();
 			}
 		}
@@ -145,7 +139,7 @@ public final class NetlifyClient {
 				.uri(siteUri.resolve("deploys?per_page=" + resultPerPage + (state == null ? "" : "&state=" + state)))
 				.GET()
 				.build();
-			return client.send(request, bodyHandler).body()
+			return transport.send("netlify.site.deploys", request, bodyHandler).body()
 				.map(JsonValue::asJsonArray)
 				.flatMap(Collection::stream)
 				.map(JsonValue::asJsonObject);
@@ -157,7 +151,7 @@ public final class NetlifyClient {
 				.uri(siteUri.resolve("files"))
 				.GET()
 				.build();
-			return client.send(request, bodyHandler).body()
+			return transport.send("netlify.site.files", request, bodyHandler).body()
 				.map(JsonValue::asJsonArray)
 				.flatMap(Collection::stream)
 				.map(JsonValue::asJsonObject);
@@ -166,7 +160,7 @@ public final class NetlifyClient {
 		@SneakyThrows
 		public Optional<JsonObject> find() {
 			var request = requestFactory.get().uri(siteUri).GET().build();
-			try (var valueStream = client.send(request, bodyHandler).body()) {
+			try (var valueStream = transport.send("netlify.site.find", request, bodyHandler).body()) {
 				return valueStream.map(JsonValue::asJsonObject).findAny();
 			}
 		}
@@ -13,6 +13,9 @@ import java.net.URI;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -27,21 +30,52 @@ import static lombok.AccessLevel.PRIVATE;
 public class NetlifyDeployer {
 
 	private static final String DEPLOYMENT_TITLE = "pawgen_deployer";
+	public static final int DEFAULT_UPLOAD_CONCURRENCY = 8;
 	private final NetlifyClient netlifyClient;
 	private final String siteId;
+	private final int uploadConcurrency;
+	private final DeployState state;
 	private final Retrier retrier = new Retrier(Duration.ofSeconds(2), 20);
+	private final Retrier uploadRetrier = new Retrier(Duration.ofSeconds(2), 5); // deploy is retried as whole anyway
 
-	public NetlifyDeployer(URI url, String accessToken, String siteId) {
-		this.netlifyClient = url == null ? new NetlifyClient(accessToken) : new NetlifyClient(url, accessToken);
+	public NetlifyDeployer(DeployerTransport transport, URI url, String accessToken, String siteId) {
+		this(transport, url, accessToken, siteId, DEFAULT_UPLOAD_CONCURRENCY);
+	}
+
+	public NetlifyDeployer(DeployerTransport transport, URI url, String accessToken, String siteId, int uploadConcurrency) {
+		this(transport, url, accessToken, siteId, uploadConcurrency, DeployState.none());
+	}
+
+	public NetlifyDeployer(DeployerTransport transport, URI url, String accessToken, String siteId, int uploadConcurrency, DeployState state) {
+		if (uploadConcurrency < 1) {
+			throw new IllegalArgumentException("upload concurrency have to be positive " + uploadConcurrency);
+		}
+		this.netlifyClient = new NetlifyClient(transport, url == null ? NetlifyClient.NETLIFY_BASE_URL : url, accessToken);
 		this.siteId = siteId;
+		this.uploadConcurrency = uploadConcurrency;
+		this.state = state;
 	}
 
 	@SneakyThrows
 	public final <T extends Digest & Content & Path> void deploy(Collection<T> toBeDeployed) {
-		retrier.exec(new Operation<>(this, toBeDeployed)::deploy);
+		var manifestHash = DeployState.manifestHash(toBeDeployed);
+		if (state.isUnchanged(manifestHash)) { // deployed anyway, remote might be rolled back meanwhile
+			log.info("Nothing changed since last deploy of {} files, nothing will be uploaded", toBeDeployed.size());
+		}
+		var journal = state.journal(manifestHash);
+		retrier.exec(new Operation<>(this, toBeDeployed, journal, state.getDeployedDigests())::deploy);
+		journal.complete();
+		state.save(manifestHash, toBeDeployed.stream().map(Digest::getDigest).toList());
 		log.debug("Deployed {} files", toBeDeployed.size());
 	}
 
+	/**
+	 * Netlify asks for files only once deploy is created with the complete manifest, so nothing is uploaded ahead.
+	 */
+	public final <T extends Digest & Content & Path> DeployPipeline<T> pipeline() {
+		return DeployPipeline.deferred(this::deploy);
+	}
+
 	Optional<String> getDeployState(String deployId) {
 		return netlifyClient.deploy(deployId).find()
 			.filter(d -> DEPLOYMENT_TITLE.equals(d.getString("title")))
@@ -63,16 +97,45 @@ public class NetlifyDeployer {
 			.map(JsonString::getString);
 	}
 
+	<T extends Content & Path> long uploadFiles(String deployId, Collection<T> files) {
+		return uploadFiles(deployId, files, __ -> {});
+	}
+
 	/**
-	 * @return true if everything is uploaded successfully
+	 * Uploads up to uploadConcurrency files at once, every file is retried on its own a few times (rate limit included),
+	 * so one failed request doesn't restart the whole deploy. Client error of any file stops the upload.
+	 *
+	 * @param onUploaded told about every file as soon as it is uploaded, called from upload threads
+	 * @return number of uploaded files
 	 */
 	@SneakyThrows
-	<T extends Content & Path> long uploadFiles(String deployId, Collection<T> files) {
+	<T extends Content & Path> long uploadFiles(String deployId, Collection<T> files, Consumer<? super T> onUploaded) {
 		var deployOp = netlifyClient.deploy(deployId);
-		return files.stream()
-			.mapToLong(value -> upload(deployOp, value))
-			.filter(value -> value != Long.MIN_VALUE)
-			.count();
+		var executor = Executors.newFixedThreadPool(Math.min(uploadConcurrency, Math.max(1, files.size())), Thread.ofVirtual().name("netlify-upload-", 0).factory());
+		long start = System.nanoTime();
+		try {
+			var uploads = files.stream()
+				.map(file -> executor.submit(() -> {
+					long size = uploadRetrier.exec(() -> upload(deployOp, file));
+					onUploaded.accept(file);
+					return size;
+				}))
+				.toList();
+			long uploaded = 0, bytes = 0;
+			for (var upload : uploads) {
+				try {
+					bytes += upload.get();
+					uploaded++;
+				} catch (ExecutionException e) {
+					throw e.getCause();
+				}
+			}
+			long millis = Math.max(1, Duration.ofNanos(System.nanoTime() - start).toMillis());
+			log.info("Uploaded {} files, {}Kb in {}ms ({}Kb/s)", uploaded, bytes / 1024, millis, bytes * 1000 / 1024 / millis);
+			return uploaded;
+		} finally {
+			executor.shutdownNow();
+		}
 	}
 
 	private <T extends Content & Path> long upload(NetlifyClient.DeployOperation deployOp, T value) {
@@ -111,6 +174,9 @@ final class Operation<T extends Digest & Content & Path> {
 	private final NetlifyDeployer client;
 	private final Collection<T> files;
 	private final Map<String, T> unique;
+	private final DeployJournal journal;
+	private final Set<String> deployedBefore;
+	private final Set<String> skipped = new HashSet<>();
 
 	private String deployId;
 
@@ -119,11 +185,24 @@ final class Operation<T extends Digest & Content & Path> {
 	}
 
 	Operation(NetlifyDeployer client, Collection<T> files) {
-		this(client, files, null);
+		this(client, files, DeployJournal.none());
+	}
+
+	Operation(NetlifyDeployer client, Collection<T> files, DeployJournal journal) {
+		this(client, files, journal, Set.of());
+	}
+
+	/**
+	 * Continues deploy recorded in journal, if any
+	 *
+	 * @param deployedBefore digests of previous deploy, not uploaded unless remote asks for them again
+	 */
+	Operation(NetlifyDeployer client, Collection<T> files, DeployJournal journal, Set<String> deployedBefore) {
+		this(client, files, createUnique(files), journal, deployedBefore, journal.getDeployId().orElse(null));
 	}
 
 	Operation(NetlifyDeployer client, Collection<T> files, String deployId) {
-		this(client, files, createUnique(files), deployId);
+		this(client, files, createUnique(files), DeployJournal.none(), Set.of(), deployId);
 	}
 
 	/**
@@ -139,6 +218,7 @@ final class Operation<T extends Digest & Content & Path> {
 				var deployId = client.getLastDeployWithStatus("prepared");
 				if (deployId.isPresent()) { // try to resume
 					this.deployId = deployId.get();
+					journal.deployId(this.deployId);
 					if (deployWithState("prepared")) {
 						return;
 					}
@@ -146,8 +226,16 @@ final class Operation<T extends Digest & Content & Path> {
 				if (deployWithState("--init--")) {
 					return;
 				}
-			} else if (client.getDeployState(deployId).map(this::deployWithState).orElseThrow()) {
-				return;
+			} else {
+				var state = client.getDeployState(deployId);
+				if (state.isEmpty()) { // e.g. deploy from journal was removed meanwhile
+					log.info("Deploy '{}' not found, starting new one", deployId);
+					deployId = null;
+					continue;
+				}
+				if (deployWithState(state.get())) {
+					return;
+				}
 			}
 			sleep(Duration.ofSeconds(2));
 		}
@@ -163,6 +251,7 @@ final class Operation<T extends Digest & Content & Path> {
 			case "error":
 				log.info("Creating new deployment and upload {} files", files.size());
 				deployId = client.createDeploy(files).orElseThrow();
+				journal.deployId(deployId);
 				return false; //retry later deploy might be in 'processing' state
 			case "new": // files need to be added to deploy
 			case "uploading":
@@ -179,10 +268,15 @@ final class Operation<T extends Digest & Content & Path> {
 					client.cancelDeploy(deployId);
 					return false; //we are done here
 				}
+				files.removeIf(this::isUploadedBefore);
+				if (files.isEmpty()) {
+					log.info("All files of deploy '{}' were uploaded before, waiting for processing", deployId);
+					return false;
+				}
 				log.info("Uploading {} files", files.size());
 				log.atTrace().setMessage("Uploading files: {}").addArgument(() -> files.stream().map(Object::toString).collect(joining())).log();
 				try {
-					long filesUploaded = client.uploadFiles(deployId, files);
+					long filesUploaded = client.uploadFiles(deployId, files, file -> journal.uploaded(List.of(file.getDigest())));
 					log.info("Uploaded {} files, left: {}", filesUploaded, files.size() - filesUploaded);
 					return filesUploaded == files.size();
 				} catch (DeployerHttpException e) {
@@ -207,5 +301,14 @@ final class Operation<T extends Digest & Content & Path> {
 		throw new IllegalArgumentException(String.format("Unknown state '%s' for deploy with Id '%s'", state, deployId));
 	}
 
+	/**
+	 * File uploaded before deploy was interrupted or deployed last time is skipped once,
+	 * it is uploaded if remote still asks for it later.
+	 */
+	private boolean isUploadedBefore(T file) {
+		var digest = file.getDigest();
+		return (journal.getUploaded().contains(digest) || deployedBefore.contains(digest)) && skipped.add(digest);
+	}
+
 }
 
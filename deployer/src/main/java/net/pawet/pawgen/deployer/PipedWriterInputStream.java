@@ -0,0 +1,154 @@
+package net.pawet.pawgen.deployer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs push style writer (e.g. json generator) in a virtual thread and exposes its output as an input stream,
+ * so request body can be pulled by http client while it's generated.
+ * At most {@link #CAPACITY} chunks are buffered, writer waits for the reader otherwise.
+ * Writer failure is rethrown to the reader, so truncated body is never sent as a complete one.
+ */
+final class PipedWriterInputStream extends InputStream {
+
+	static final int CHUNK_SIZE = 8 * 1024;
+	static final int CAPACITY = 4;
+	private static final long READER_TIMEOUT_MINUTES = 5;
+	private static final byte[] EOF = new byte[0];
+
+	private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CAPACITY);
+	private final Thread writerThread;
+	private volatile Throwable failure;
+	private volatile boolean closed;
+	private byte[] chunk = new byte[0];
+	private int position;
+	private boolean eof;
+
+	PipedWriterInputStream(Consumer<OutputStream> writer) {
+		this.writerThread = Thread.ofVirtual().name("piped-writer").start(() -> {
+			try (var os = new ChunkOutputStream()) {
+				writer.accept(os);
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				offer(EOF);
+			}
+		});
+	}
+
+	@Override
+	public int read() throws IOException {
+		return next() ? chunk[position++] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!next()) {
+			return -1;
+		}
+		int n = Math.min(len, chunk.length - position);
+		System.arraycopy(chunk, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	private boolean next() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (position == chunk.length) {
+			if (eof) {
+				return false;
+			}
+			try {
+				chunk = chunks.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for writer");
+			}
+			position = 0;
+			if (chunk == EOF) {
+				eof = true;
+				if (failure != null) {
+					throw new IOException("Writer failed", failure);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the writer if the body isn't fully read.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			writerThread.interrupt();
+			chunks.clear();
+		}
+	}
+
+	private boolean offer(byte[] chunk) {
+		try {
+			return !closed && chunks.offer(chunk, READER_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private final class ChunkOutputStream extends OutputStream {
+
+		private byte[] buffer = new byte[CHUNK_SIZE];
+		private int count;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == CHUNK_SIZE) {
+				flushChunk();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == CHUNK_SIZE) {
+					flushChunk();
+				}
+				int n = Math.min(len, CHUNK_SIZE - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void flushChunk() throws IOException {
+			if (!offer(count == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, count))) {
+				throw new InterruptedIOException("Reader is gone");
+			}
+			buffer = new byte[CHUNK_SIZE];
+			count = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (count > 0) {
+				flushChunk();
+			}
+		}
+	}
+
+}
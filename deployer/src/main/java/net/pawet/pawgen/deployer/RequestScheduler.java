@@ -0,0 +1,266 @@
+package net.pawet.pawgen.deployer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.http.HttpHeaders;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Paces requests per host before remote starts rejecting them. Rate limit is learnt from response headers:
+ * remaining requests are spread evenly till the limit resets (token bucket), exhausted limit or 429 response holds
+ * every request to the host till reset or Retry-After. Requests in flight are limited by AIMD: the limit grows by one
+ * after a window of successful responses and is halved on throttling or overload.
+ */
+@Slf4j
+final class RequestScheduler {
+
+	static final int INITIAL_CONCURRENCY = 8;
+	static final int MAX_CONCURRENCY = 64;
+	private static final Duration DEFAULT_BACKOFF = Duration.ofSeconds(1);
+	private static final long EPOCH_SECONDS_THRESHOLD = 1_000_000_000L; // smaller reset is seconds from now
+
+	private final Clock clock;
+	private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+	RequestScheduler() {
+		this(Clock.systemUTC());
+	}
+
+	RequestScheduler(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Blocks till request to the host is allowed, permit has to be released with the response.
+	 */
+	Host acquire(String host) throws InterruptedException {
+		var scheduled = hosts.computeIfAbsent(host, Host::new);
+		scheduled.acquire();
+		return scheduled;
+	}
+
+	Map<String, Host> getHosts() {
+		return new TreeMap<>(hosts);
+	}
+
+	@Override
+	public String toString() {
+		return hosts.entrySet().stream()
+			.sorted(Map.Entry.comparingByKey())
+			.map(e -> e.getKey() + ": " + e.getValue())
+			.collect(Collectors.joining("; "));
+	}
+
+	final class Host {
+
+		private final String name;
+		private final ReentrantLock lock = new ReentrantLock(); // virtual threads aren't pinned, unlike synchronized
+		private final Condition changed = lock.newCondition();
+		private final LongAdder throttledNanos = new LongAdder();
+		private final LongAdder throttledResponses = new LongAdder();
+		private double ratePerSecond = Double.POSITIVE_INFINITY;
+		private double tokens = 1;
+		private Instant refilledAt = clock.instant();
+		private Instant rateUntil = Instant.MAX;
+		private Instant blockedUntil = Instant.MIN;
+		private int concurrency = INITIAL_CONCURRENCY;
+		private int inFlight;
+		private int succeeded;
+
+		private Host(String name) {
+			this.name = name;
+		}
+
+		private void acquire() throws InterruptedException {
+			long start = System.nanoTime();
+			lock.lock();
+			try {
+				for (var wait = tryAcquire(); !Duration.ZERO.equals(wait); wait = tryAcquire()) {
+					if (wait == null) {
+						changed.await();
+					} else {
+						changed.await(wait.toNanos(), TimeUnit.NANOSECONDS);
+					}
+				}
+			} finally {
+				lock.unlock();
+				long waited = System.nanoTime() - start;
+				if (waited > TimeUnit.MILLISECONDS.toNanos(1)) {
+					throttledNanos.add(waited);
+				}
+			}
+		}
+
+		/**
+		 * Takes permit if request is allowed now.
+		 *
+		 * @return zero if permit is taken, time to wait otherwise, null if some request has to be released first
+		 */
+		Duration tryAcquire() {
+			lock.lock();
+			try {
+				var now = clock.instant();
+				var blockedFor = Duration.between(now, blockedUntil);
+				if (blockedFor.isPositive()) {
+					return blockedFor;
+				}
+				if (inFlight >= concurrency) {
+					return null;
+				}
+				if (refill(now) >= 1) {
+					tokens--;
+					inFlight++;
+					return Duration.ZERO;
+				}
+				return tokenWait(now);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private double refill(Instant now) {
+			if (now.isAfter(rateUntil)) {
+				ratePerSecond = Double.POSITIVE_INFINITY; // limit window is over, nothing is known about the next one
+				rateUntil = Instant.MAX;
+			}
+			if (Double.isInfinite(ratePerSecond)) {
+				tokens = 1;
+			} else {
+				tokens = Math.min(Math.max(1, ratePerSecond), tokens + Duration.between(refilledAt, now).toNanos() / 1e9 * ratePerSecond);
+			}
+			refilledAt = now;
+			return tokens;
+		}
+
+		private Duration tokenWait(Instant now) {
+			long tillReset = Math.max(1, Duration.between(now, rateUntil).toNanos());
+			return Duration.ofNanos(ratePerSecond > 0 ? Math.min(tillReset, (long) Math.ceil((1 - tokens) / ratePerSecond * 1e9)) : tillReset);
+		}
+
+		/**
+		 * @param statusCode -1 if request failed without response
+		 */
+		void release(int statusCode, HttpHeaders headers) {
+			lock.lock();
+			try {
+				inFlight--;
+				var now = clock.instant();
+				var limit = headers == null ? null : RateLimit.of(headers, now);
+				if (limit != null) {
+					learn(limit, now);
+				}
+				if (statusCode == 429 || statusCode == 503) {
+					throttledResponses.increment();
+					if (statusCode == 429 && (limit == null || !limit.blockedUntil().isAfter(now))) {
+						block(now.plus(DEFAULT_BACKOFF));
+					}
+					concurrency = Math.max(1, concurrency / 2);
+					succeeded = 0;
+					log.debug("Requests to {} are throttled, concurrency reduced to {}", name, concurrency);
+				} else if (statusCode / 100 == 2 && ++succeeded >= concurrency) {
+					concurrency = Math.min(MAX_CONCURRENCY, concurrency + 1);
+					succeeded = 0;
+				}
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void learn(RateLimit limit, Instant now) {
+			if (limit.blockedUntil().isAfter(now)) {
+				block(limit.blockedUntil());
+			}
+			if (limit.remaining().isPresent() && limit.reset().isPresent()) {
+				long remaining = limit.remaining().getAsLong();
+				var untilReset = Duration.between(now, limit.reset().get());
+				if (untilReset.isPositive()) {
+					ratePerSecond = Math.max(0, remaining) / Math.max(untilReset.toNanos() / 1e9, 1);
+					tokens = Math.min(tokens, Math.max(0, remaining));
+					rateUntil = limit.reset().get();
+				}
+			}
+		}
+
+		private void block(Instant until) {
+			if (until.isAfter(blockedUntil)) {
+				blockedUntil = until;
+				log.info("Requests to {} are rate limited till {}", name, until);
+			}
+		}
+
+		public Duration getThrottled() {
+			return Duration.ofNanos(throttledNanos.sum());
+		}
+
+		public long getThrottledResponses() {
+			return throttledResponses.sum();
+		}
+
+		public int getConcurrency() {
+			lock.lock();
+			try {
+				return concurrency;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "throttled %ds, %d throttled responses, concurrency %d".formatted(getThrottled().toSeconds(), getThrottledResponses(), getConcurrency());
+		}
+	}
+
+	/**
+	 * Rate limit announced by remote, X-RateLimit-Reset is either epoch seconds (netlify) or seconds from now.
+	 */
+	record RateLimit(OptionalLong limit, OptionalLong remaining, Optional<Instant> reset, Instant blockedUntil) {
+
+		static RateLimit of(HttpHeaders headers, Instant now) {
+			var limit = headers.firstValueAsLong("X-RateLimit-Limit");
+			var remaining = headers.firstValueAsLong("X-RateLimit-Remaining");
+			var reset = headers.firstValue("X-RateLimit-Reset").flatMap(RateLimit::parseLong)
+				.map(value -> value > EPOCH_SECONDS_THRESHOLD ? Instant.ofEpochSecond(value) : now.plusSeconds(value));
+			var retryAfter = headers.firstValue("Retry-After").flatMap(value -> parseRetryAfter(value, now));
+			var blockedUntil = retryAfter
+				.or(() -> remaining.isPresent() && remaining.getAsLong() <= 0 ? reset : Optional.empty())
+				.orElse(Instant.MIN);
+			return new RateLimit(limit, remaining, reset, blockedUntil);
+		}
+
+		private static Optional<Long> parseLong(String value) {
+			try {
+				return Optional.of(Long.parseLong(value.trim()));
+			} catch (NumberFormatException e) {
+				return Optional.empty();
+			}
+		}
+
+		private static Optional<Instant> parseRetryAfter(String value, Instant now) {
+			return parseLong(value).map(now::plusSeconds).or(() -> {
+				try {
+					return Optional.of(ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+				} catch (DateTimeParseException e) {
+					return Optional.empty();
+				}
+			});
+		}
+	}
+
+}
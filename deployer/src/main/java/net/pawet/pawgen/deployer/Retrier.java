@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.concurrent.Callable;
 
 import static java.lang.Thread.sleep;
@@ -38,12 +39,13 @@ final class Retrier {
 			try {
 				return operation.call();
 			} catch (DeployerHttpException.DeployerRateLimitHttpException e) {
-				long delay = clock.millis() - e.getReset().toEpochMilli();
-				if (delay > 0) {
-					log.info("Requests are rate limited. Waiting {} seconds", delay / 1000);
+				var delay = waitFor(e.getReset());
+				if (delay.isPositive()) {
+					log.info("Requests are rate limited. Waiting {} seconds", delay.toSeconds());
 					sleep(delay);
 					continue;
 				}
+				log.debug("Rate limited without known reset", e);
 			} catch (DeployerHttpException e) {
 				if (e.getHttpStatusCode() / 100 == 4) {
 					log.debug("Hit client error", e);
@@ -56,4 +58,11 @@ final class Retrier {
 		}
 	}
 
+	/**
+	 * Time left till rate limit reset, zero if reset is unknown or already passed
+	 */
+	Duration waitFor(Instant reset) {
+		return reset.equals(Instant.MIN) ? Duration.ZERO : Duration.ofMillis(Math.max(0, reset.toEpochMilli() - clock.millis()));
+	}
+
 }
@@ -0,0 +1,112 @@
+package net.pawet.pawgen.deployer.digest;
+
+import org.bouncycastle.crypto.digests.Blake3Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static net.pawet.pawgen.deployer.digest.CfDigestHandler.parseFileExt;
+
+/**
+ * Single pass sha1 and CloudFlare Pages digest (see {@link CfDigestHandler}): every written byte is read once,
+ * base64 is encoded into a reused scratch block fed to BLAKE3, so nothing is allocated per write.
+ * Buffer position is not changed. Not thread safe.
+ */
+public final class FusedDigestHandler implements Consumer<ByteBuffer>, AutoCloseable {
+
+	private static final int BLOCK = 3 * 1024; // multiple of 3, so only the last group is padded
+	private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
+	private static final byte PAD = '=';
+
+	private final SHA1Digest sha1 = new SHA1Digest();
+	private final Blake3Digest blake3 = new Blake3Digest(128);
+	private final byte[] scratch = new byte[BLOCK]; // copy of direct buffer content
+	private final byte[] encoded = new byte[BLOCK / 3 * 4];
+	private final byte[] group = new byte[3]; // bytes waiting for a complete base64 group
+	private int groupLength;
+	private final Path path;
+	private final Consumer<byte[]> sha1Consumer;
+	private final Consumer<byte[]> cfConsumer;
+
+	public FusedDigestHandler(Path path, Consumer<byte[]> sha1Consumer, Consumer<byte[]> cfConsumer) {
+		this.path = path;
+		this.sha1Consumer = sha1Consumer;
+		this.cfConsumer = cfConsumer;
+	}
+
+	@Override
+	public void accept(ByteBuffer bb) {
+		update(bb, bb.position(), bb.remaining());
+	}
+
+	public void update(ByteBuffer bb, int offset, int length) {
+		if (bb.hasArray()) {
+			update(bb.array(), bb.arrayOffset() + offset, length);
+			return;
+		}
+		while (length > 0) {
+			int n = Math.min(length, scratch.length);
+			bb.get(offset, scratch, 0, n);
+			update(scratch, 0, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	public void update(byte[] bytes, int offset, int length) {
+		sha1.update(bytes, offset, length);
+		while (groupLength > 0 && length > 0) {
+			group[groupLength++] = bytes[offset++];
+			length--;
+			if (groupLength == 3) {
+				blake3.update(encoded, 0, encode(group, 0, 3, encoded));
+				groupLength = 0;
+			}
+		}
+		int whole = length - length % 3;
+		for (int i = 0; i < whole; i += BLOCK) {
+			int n = Math.min(whole - i, BLOCK);
+			blake3.update(encoded, 0, encode(bytes, offset + i, n, encoded));
+		}
+		for (int i = whole; i < length; i++) {
+			group[groupLength++] = bytes[offset + i];
+		}
+	}
+
+	private static int encode(byte[] src, int offset, int length, byte[] dst) {
+		int d = 0;
+		for (int end = offset + length; offset < end; offset += 3) {
+			int bits = (src[offset] & 0xff) << 16 | (src[offset + 1] & 0xff) << 8 | (src[offset + 2] & 0xff);
+			dst[d++] = ALPHABET[bits >>> 18 & 0x3f];
+			dst[d++] = ALPHABET[bits >>> 12 & 0x3f];
+			dst[d++] = ALPHABET[bits >>> 6 & 0x3f];
+			dst[d++] = ALPHABET[bits & 0x3f];
+		}
+		return d;
+	}
+
+	@Override
+	public void close() {
+		if (groupLength > 0) {
+			int bits = (group[0] & 0xff) << 16 | (groupLength == 2 ? (group[1] & 0xff) << 8 : 0);
+			encoded[0] = ALPHABET[bits >>> 18 & 0x3f];
+			encoded[1] = ALPHABET[bits >>> 12 & 0x3f];
+			encoded[2] = groupLength == 2 ? ALPHABET[bits >>> 6 & 0x3f] : PAD;
+			encoded[3] = PAD;
+			blake3.update(encoded, 0, 4);
+			groupLength = 0;
+		}
+		var ext = parseFileExt(path.getFileName().toString()).getBytes();
+		blake3.update(ext, 0, ext.length); //append non base64 ending
+		var sha1Digest = new byte[sha1.getDigestSize()];
+		sha1.doFinal(sha1Digest, 0);
+		var cfDigest = new byte[blake3.getDigestSize()];
+		blake3.doFinal(cfDigest, 0);
+		sha1Consumer.accept(sha1Digest);
+		cfConsumer.accept(cfDigest);
+	}
+
+}
@@ -0,0 +1,76 @@
+package net.pawet.pawgen.deployer
+
+import jakarta.json.Json
+import net.pawet.pawgen.deployer.deployitem.Content
+import net.pawet.pawgen.deployer.deployitem.Digest
+import net.pawet.pawgen.deployer.deployitem.Path
+import spock.lang.Specification
+
+import java.lang.Void as Should
+
+class AssetUploadBodySpec extends Specification {
+
+	Should "generate upload json"() {
+		given:
+		def files = [new TestFile('file3.txt'), new TestFile('image3.bmp')]
+		when:
+		def json = Json.createReader(AssetUploadBody.inputStream(files)).readValue()
+		then:
+		json == Json.createReader(new StringReader("""[
+			{"key": "${files[0].digest}", "base64": true, "metadata": {"contentType": "text/plain"}, "value": "ZmlsZTMudHh0"},
+			{"key": "${files[1].digest}", "base64": true, "metadata": {"contentType": "image/bmp"}, "value": "aW1hZ2UzLmJtcA=="}
+		]""")).readValue()
+	}
+
+	Should "generate empty json array"() {
+		expect:
+		AssetUploadBody.inputStream([]).text == '[]'
+	}
+
+	Should "encode content bigger than a chunk"() {
+		given:
+		byte[] data = new byte[size]
+		new Random(size).nextBytes(data)
+		when:
+		def encoded = new AssetUploadBody.Base64InputStream(new ByteArrayInputStream(data)).text
+		then:
+		encoded == Base64.encoder.encodeToString(data)
+		where:
+		size << [0, 1, 3 * 1024, 3 * 1024 + 2, 100_000]
+	}
+
+	Should "open file only when it is read"() {
+		given:
+		def opened = []
+		def files = (1..3).collect { i -> new LazyFile("/file$i", { opened << i }) }
+		when:
+		def is = AssetUploadBody.inputStream(files)
+		then:
+		opened.empty
+		when:
+		is.readNBytes(10)
+		is.close()
+		then:
+		opened == [1]
+	}
+
+	static final class LazyFile implements Digest, Content, Path {
+
+		final String digest = 'digest'
+		final String path
+		final Closure onOpen
+
+		LazyFile(String path, Closure onOpen) {
+			this.path = path
+			this.onOpen = onOpen
+		}
+
+		@Override
+		InputStream inputStream() {
+			onOpen()
+			new ByteArrayInputStream(path.bytes)
+		}
+
+	}
+
+}
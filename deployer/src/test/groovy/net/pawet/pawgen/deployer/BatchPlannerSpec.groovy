@@ -0,0 +1,52 @@
+package net.pawet.pawgen.deployer
+
+import net.pawet.pawgen.deployer.deployitem.Size
+import spock.lang.Specification
+
+import java.lang.Void as Should
+
+class BatchPlannerSpec extends Specification {
+
+	Should "pack biggest files first and fill gaps with small ones"() {
+		given:
+		def planner = new BatchPlanner(10, 100)
+		when:
+		def batches = planner.plan([2, 7, 3, 1, 6, 4].collect { new SizedItem(it) })
+		then:
+		batches*.sizeInBytes == [[7, 3], [6, 4], [2, 1]]
+	}
+
+	Should "limit files per batch"() {
+		given:
+		def planner = new BatchPlanner(1000, 2)
+		when:
+		def batches = planner.plan((1..5).collect { new SizedItem(1) })
+		then:
+		batches*.size() == [2, 2, 1]
+	}
+
+	Should "keep file bigger than limit in own batch"() {
+		given:
+		def planner = new BatchPlanner(10, 100)
+		when:
+		def batches = planner.plan([new SizedItem(1), new SizedItem(20)])
+		then:
+		batches*.sizeInBytes == [[20], [1]]
+	}
+
+	Should "plan nothing for no files"() {
+		expect:
+		new BatchPlanner(10, 10).plan([]) == []
+	}
+
+	static final class SizedItem implements Size {
+
+		final long sizeInBytes
+
+		SizedItem(long sizeInBytes) {
+			this.sizeInBytes = sizeInBytes
+		}
+
+	}
+
+}
@@ -54,7 +54,10 @@ class CloudflarePagesClientSpec extends Specification {
 	String projectName = getenv().getOrDefault('CLOUDFLARE_PROJECTNAME', 'pawet')
 	String token = getenv().getOrDefault('CLOUDFLARE_TOKEN', 'token')
 
-	CloudflarePagesClient client = new CloudflarePagesClient(baseUrl, token)
+	@AutoCleanup
+	DeployerTransport transport = new DeployerTransport()
+
+	CloudflarePagesClient client = new CloudflarePagesClient(transport, baseUrl, token)
 
 
 }
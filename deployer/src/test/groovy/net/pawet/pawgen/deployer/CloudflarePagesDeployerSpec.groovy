@@ -0,0 +1,229 @@
+package net.pawet.pawgen.deployer
+
+import com.github.tomakehurst.wiremock.WireMockServer
+import jakarta.json.Json
+import jakarta.json.JsonObject
+import net.pawet.pawgen.deployer.deployitem.Content
+import net.pawet.pawgen.deployer.deployitem.Digest
+import net.pawet.pawgen.deployer.deployitem.Path
+import net.pawet.pawgen.deployer.deployitem.Size
+import spock.lang.Specification
+import spock.lang.TempDir
+import spock.util.concurrent.PollingConditions
+
+import java.lang.Void as Should
+import java.nio.file.Files
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options
+
+class CloudflarePagesDeployerSpec extends Specification {
+
+	Should "upload every missing file in concurrent batches"() {
+		given:
+		def files = (1..23).collect { new SizedFile("/file$it") }
+		def missing = files.findAll { it.path.length() % 2 == 0 || it.path.endsWith('1') }
+		stubCloudflare(missing*.digest)
+		and:
+		def deployer = new CloudflarePagesDeployer(transport, "http://localhost:${server.port()}/".toURI(), 'token', 'project', 'account', 3, DeployState.none(), 4, 5000)
+		when:
+		deployer.deploy(files, null)
+		then:
+		def uploads = server.findAll(postRequestedFor(urlEqualTo('/pages/assets/upload')))
+			.collect { Json.createReader(new StringReader(it.bodyAsString)).readArray().getValuesAs(JsonObject) }
+		uploads.size() == Math.ceil(missing.size() / 4) as int
+		uploads.every { it.size() <= 4 }
+		uploads.flatten().collect { it.getString('key') }.sort() == missing*.digest.sort()
+		and:
+		server.verify(1, getRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/upload-token')))
+		server.verify(1, postRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/deployments')))
+		server.verify(1, postRequestedFor(urlEqualTo('/pages/assets/upsert-hashes')))
+	}
+
+	Should "not upload anything if nothing is missing"() {
+		given:
+		def files = (1..3).collect { new SizedFile("/file$it") }
+		stubCloudflare([])
+		and:
+		def deployer = new CloudflarePagesDeployer(transport, "http://localhost:${server.port()}/".toURI(), 'token', 'project', 'account', 3)
+		when:
+		deployer.deploy(files, null)
+		then:
+		server.verify(0, postRequestedFor(urlEqualTo('/pages/assets/upload')))
+		server.verify(1, postRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/deployments')))
+	}
+
+	Should "check missing and upsert hashes in chunks"() {
+		given:
+		def files = (1..10).collect { new SizedFile("/file$it") }
+		def missing = files.findAll { it.path.endsWith('1') || it.path.endsWith('5') }
+		stubCloudflare([])
+		missing.each { file ->
+			server.stubFor(post('/pages/assets/check-missing')
+				.atPriority(1)
+				.withRequestBody(matchingJsonPath('$.hashes[0]', equalTo(file.digest)))
+				.willReturn(okJson("""{"success": true, "result": ["$file.digest"]}""")))
+		}
+		and:
+		def deployer = new CloudflarePagesDeployer(transport, "http://localhost:${server.port()}/".toURI(), 'token', 'project', 'account', 3, DeployState.none(), 5000, 1)
+		when:
+		deployer.deploy(files, null)
+		then:
+		server.findAll(postRequestedFor(urlEqualTo('/pages/assets/check-missing'))).size() == files.size()
+		and:
+		def upserted = server.findAll(postRequestedFor(urlEqualTo('/pages/assets/upsert-hashes')))
+			.collect { Json.createReader(new StringReader(it.bodyAsString)).readObject().getJsonArray('hashes').getString(0) }
+		upserted.sort() == missing*.digest.sort()
+		and:
+		def uploaded = server.findAll(postRequestedFor(urlEqualTo('/pages/assets/upload')))
+			.collectMany { Json.createReader(new StringReader(it.bodyAsString)).readArray().getValuesAs(JsonObject) }
+			.collect { it.getString('key') }
+		uploaded.sort() == missing*.digest.sort()
+	}
+
+	Should "check only digests not deployed before"() {
+		given:
+		def files = (1..5).collect { new SizedFile("/file$it") }
+		stubCloudflare(files*.digest)
+		def url = "http://localhost:${server.port()}/".toURI()
+		when: 'first deploy'
+		new CloudflarePagesDeployer(transport, url, 'token', 'project', 'account', 3, DeployState.load(stateDir, 'cloudflare-account-project')).deploy(files, null)
+		then:
+		checkedHashes() == files*.digest.sort()
+		when: 'one file is changed'
+		server.resetRequests()
+		def changed = files.take(4) + new SizedFile('/file5', 'changed')
+		new CloudflarePagesDeployer(transport, url, 'token', 'project', 'account', 3, DeployState.load(stateDir, 'cloudflare-account-project')).deploy(changed, null)
+		then:
+		checkedHashes() == [changed.last().digest]
+		server.verify(1, postRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/deployments')))
+		when: 'nothing is changed'
+		server.resetRequests()
+		new CloudflarePagesDeployer(transport, url, 'token', 'project', 'account', 3, DeployState.load(stateDir, 'cloudflare-account-project')).deploy(changed, null)
+		then: 'deployment is created anyway, nothing is checked nor uploaded'
+		server.verify(1, postRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/deployments')))
+		checkMissingRequests().empty
+		server.verify(0, postRequestedFor(urlEqualTo('/pages/assets/upload')))
+		server.verify(0, postRequestedFor(urlEqualTo('/pages/assets/upsert-hashes')))
+	}
+
+	Should "resume interrupted deploy"() {
+		given:
+		def files = (1..4).collect { new SizedFile("/file$it") }
+		stubCloudflare(files*.digest)
+		and: 'interrupted deploy uploaded two files and created deployment'
+		def journal = DeployState.load(stateDir, 'cloudflare-account-project').journal(DeployState.manifestHash(files))
+		journal.uploaded(files.take(2)*.digest)
+		journal.deployId('deploymentId')
+		when:
+		new CloudflarePagesDeployer(transport, "http://localhost:${server.port()}/".toURI(), 'token', 'project', 'account', 3, DeployState.load(stateDir, 'cloudflare-account-project')).deploy(files, null)
+		then:
+		checkedHashes() == files.drop(2)*.digest.sort()
+		server.verify(0, postRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/deployments')))
+		server.findAll(postRequestedFor(urlEqualTo('/pages/assets/upsert-hashes')))
+			.collectMany { Json.createReader(new StringReader(it.bodyAsString)).readObject().getJsonArray('hashes').getValuesAs { it.string } }
+			.sort() == files*.digest.sort()
+		and:
+		Files.notExists(stateDir.resolve('cloudflare-account-project.journal'))
+	}
+
+	Should "upload offered files ahead of deploy"() {
+		given:
+		def files = (1..4).collect { new SizedFile("/file$it") }
+		stubCloudflare(files*.digest)
+		and:
+		def deployer = new CloudflarePagesDeployer(transport, "http://localhost:${server.port()}/".toURI(), 'token', 'project', 'account', 3)
+		def offered = files.take(3)
+		def pipeline = deployer.pipeline()
+		when:
+		offered.each { pipeline.offer(it) }
+		then: 'offered files are uploaded before completion'
+		new PollingConditions(timeout: 5).eventually {
+			assert uploadedKeys() == offered*.digest.sort()
+		}
+		server.verify(0, postRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/deployments')))
+		when:
+		int checkedAhead = server.findAll(postRequestedFor(urlEqualTo('/pages/assets/check-missing'))).size()
+		pipeline.complete(files)
+		then: 'only files not uploaded ahead are checked on completion'
+		checkMissingRequests().drop(checkedAhead).flatten() == [files.last().digest]
+		uploadedKeys() == files*.digest.sort()
+		server.verify(1, postRequestedFor(urlEqualTo('/accounts/account/pages/projects/project/deployments')))
+		server.findAll(postRequestedFor(urlEqualTo('/pages/assets/upsert-hashes')))
+			.collectMany { Json.createReader(new StringReader(it.bodyAsString)).readObject().getJsonArray('hashes').getValuesAs { it.string } }
+			.sort() == files*.digest.sort()
+		cleanup:
+		pipeline?.close()
+	}
+
+	private List<String> uploadedKeys() {
+		server.findAll(postRequestedFor(urlEqualTo('/pages/assets/upload')))
+			.collectMany { Json.createReader(new StringReader(it.bodyAsString)).readArray().getValuesAs(JsonObject) }
+			.collect { it.getString('key') }
+			.sort()
+	}
+
+	private List<String> checkedHashes() {
+		checkMissingRequests().flatten().sort()
+	}
+
+	private List<List<String>> checkMissingRequests() {
+		server.findAll(postRequestedFor(urlEqualTo('/pages/assets/check-missing')))
+			.collect { Json.createReader(new StringReader(it.bodyAsString)).readObject().getJsonArray('hashes').getValuesAs { it.string } }
+	}
+
+	private void stubCloudflare(List<String> missingDigests) {
+		server.stubFor(get('/accounts/account/pages/projects/project/upload-token')
+			.willReturn(okJson('{"success": true, "result": {"jwt": "jwt"}}')))
+		server.stubFor(post('/pages/assets/check-missing')
+			.atPriority(5)
+			.willReturn(okJson(Json.createObjectBuilder().add('success', true).add('result', Json.createArrayBuilder(missingDigests)).build().toString())))
+		server.stubFor(post('/pages/assets/upload')
+			.willReturn(okJson('{"success": true, "result": null}')))
+		server.stubFor(post('/accounts/account/pages/projects/project/deployments')
+			.willReturn(okJson('{"success": true, "result": {"id": "deploymentId"}}')))
+		server.stubFor(post('/pages/assets/upsert-hashes')
+			.willReturn(okJson('{"success": true, "result": null}')))
+	}
+
+	WireMockServer server = new WireMockServer(options().dynamicPort())
+
+	DeployerTransport transport = new DeployerTransport()
+
+	@TempDir
+	java.nio.file.Path stateDir
+
+	def setup() {
+		server.start()
+	}
+
+	def cleanup() {
+		server.stop()
+		transport.close()
+	}
+
+	static final class SizedFile implements Digest, Content, Path, Size {
+
+		final String path
+		final byte[] data
+		final String digest
+
+		SizedFile(String path, String content = path) {
+			this.path = path
+			this.data = content.bytes
+			this.digest = content.digest('SHA-1')
+		}
+
+		@Override
+		InputStream inputStream() {
+			new ByteArrayInputStream(data)
+		}
+
+		@Override
+		long getSizeInBytes() {
+			data.length
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+package net.pawet.pawgen.deployer
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.lang.Void as Should
+import java.nio.file.Files
+import java.nio.file.Path
+
+class DeployJournalSpec extends Specification {
+
+	@TempDir
+	Path dir
+
+	Should "resume journal of the same files"() {
+		given:
+		def journal = DeployJournal.open(dir.resolve('site.journal'), 'netlify-site', 'manifest')
+		journal.deployId('deployId')
+		journal.uploaded(['a', 'b'])
+		journal.uploaded(['b', 'c'])
+		when:
+		def resumed = DeployJournal.open(dir.resolve('site.journal'), 'netlify-site', 'manifest')
+		then:
+		resumed.deployId == Optional.of('deployId')
+		resumed.uploaded == ['a', 'b', 'c'] as Set
+		and: 'digest is recorded once'
+		Files.readAllLines(dir.resolve('site.journal')).count { it.startsWith('uploaded ') } == 3
+	}
+
+	Should "start over journal of other files or target"() {
+		given:
+		def journal = DeployJournal.open(dir.resolve('site.journal'), 'netlify-site', 'manifest')
+		journal.deployId('deployId')
+		journal.uploaded(['a'])
+		when:
+		def other = DeployJournal.open(dir.resolve('site.journal'), target, manifest)
+		then:
+		other.deployId.empty
+		other.uploaded.empty
+		where:
+		target         | manifest
+		'netlify-site' | 'other manifest'
+		'netlify-old'  | 'manifest'
+	}
+
+	Should "remove completed journal"() {
+		given:
+		def journal = DeployJournal.open(dir.resolve('site.journal'), 'netlify-site', 'manifest')
+		journal.deployId('deployId')
+		when:
+		journal.complete()
+		then:
+		Files.notExists(dir.resolve('site.journal'))
+		DeployJournal.open(dir.resolve('site.journal'), 'netlify-site', 'manifest').deployId.empty
+	}
+
+	Should "keep journal beside deploy state"() {
+		when:
+		DeployState.load(dir, 'netlify-site').journal('manifest').deployId('deployId')
+		then:
+		DeployState.load(dir, 'netlify-site').journal('manifest').deployId == Optional.of('deployId')
+		DeployState.none().journal('manifest').deployId.empty
+	}
+
+}
@@ -0,0 +1,78 @@
+package net.pawet.pawgen.deployer
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.lang.Void as Should
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneOffset
+
+class DeployStateSpec extends Specification {
+
+	@TempDir
+	Path dir
+
+	Instant now = Instant.parse('2026-01-01T00:00:00Z')
+
+	Should "remember deployed digests of target"() {
+		given:
+		def files = [new TestFile('/a'), new TestFile('/b')]
+		def manifest = DeployState.manifestHash(files)
+		when:
+		load().save(manifest, files*.digest)
+		def state = load()
+		then:
+		state.isUnchanged(manifest)
+		state.deployedDigests == files*.digest as Set
+		!state.isUnchanged(DeployState.manifestHash([new TestFile('/a')]))
+		and: 'other targets are separate'
+		DeployState.load(dir, 'other', clockAt(now), Duration.ofDays(1)).deployedDigests.empty
+	}
+
+	Should "ignore state to be verified"() {
+		given:
+		def files = [new TestFile('/a')]
+		def manifest = DeployState.manifestHash(files)
+		load().save(manifest, files*.digest)
+		when:
+		def state = DeployState.load(dir, 'netlify-site', clockAt(now + Duration.ofDays(2)), Duration.ofDays(1))
+		then:
+		!state.isUnchanged(manifest)
+		state.deployedDigests.empty
+	}
+
+	Should "keep verification time when deploy was checked against state"() {
+		given:
+		def files = [new TestFile('/a')]
+		load().save(DeployState.manifestHash(files), files*.digest)
+		when: 'deploy within verify interval'
+		DeployState.load(dir, 'netlify-site', clockAt(now + Duration.ofHours(20)), Duration.ofDays(1)).save('other', files*.digest)
+		then:
+		DeployState.load(dir, 'netlify-site', clockAt(now + Duration.ofHours(25)), Duration.ofDays(1)).deployedDigests.empty
+	}
+
+	Should "not depend on files order"() {
+		expect:
+		DeployState.manifestHash([new TestFile('/a'), new TestFile('/b')]) == DeployState.manifestHash([new TestFile('/b'), new TestFile('/a')])
+	}
+
+	Should "treat broken state as empty"() {
+		given:
+		Files.writeString(dir.resolve('netlify-site.state'), 'garbage')
+		expect:
+		load().deployedDigests.empty
+	}
+
+	private DeployState load() {
+		DeployState.load(dir, 'netlify-site', clockAt(now), Duration.ofDays(1))
+	}
+
+	private static Clock clockAt(Instant instant) {
+		Clock.fixed(instant, ZoneOffset.UTC)
+	}
+
+}
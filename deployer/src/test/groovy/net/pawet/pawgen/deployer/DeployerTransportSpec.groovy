@@ -0,0 +1,32 @@
+package net.pawet.pawgen.deployer
+
+import spock.lang.Specification
+
+import java.lang.Void as Should
+import java.time.Duration
+
+class DeployerTransportSpec extends Specification {
+
+	Should "bucket latencies by power of two millis"() {
+		given:
+		def latency = new DeployerTransport.Latency()
+		when:
+		[1, 3, 3, 100].each { latency.record(Duration.ofMillis(it).toNanos()) }
+		then:
+		latency.count == 4
+		latency.max == Duration.ofMillis(100)
+		latency.mean == Duration.ofNanos(Duration.ofMillis(107).toNanos().intdiv(4))
+		latency.percentile(50) == Duration.ofMillis(4)
+		latency.percentile(99) == Duration.ofMillis(128)
+	}
+
+	Should "report empty latency"() {
+		expect:
+		with(new DeployerTransport.Latency()) {
+			count == 0
+			mean == Duration.ZERO
+			percentile(99) == Duration.ZERO
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package net.pawet.pawgen.deployer
+
+import net.pawet.pawgen.deployer.deployitem.Content
+import spock.lang.Specification
+
+import java.lang.Void as Should
+
+class DeploymentFormBodySpec extends Specification {
+
+	static final String BOUNDARY = '---------------------------boundary'
+
+	Should "generate the same body as buffered builder"() {
+		given:
+		def files = paths.collect { new TestFile(it) }
+		when:
+		byte[] streamed = DeploymentFormBody.inputStream(BOUNDARY, files, redirects).readAllBytes()
+		then:
+		streamed == bufferedFormDataBody(files, redirects)
+		where:
+		paths                                               | redirects
+		['/index.html', '/img/a.png']                       | null
+		['/index.html', '/img/a.png']                       | content('/a /b 301\n/c /d 302\n')
+		['/quote"d.html', '/back\\slash', '/zażółć\t.html'] | content('')
+		[]                                                  | null
+	}
+
+	Should "not open redirects file before it is read"() {
+		given:
+		boolean opened = false
+		Content redirects = { opened = true; new ByteArrayInputStream('/a /b'.bytes) } as Content
+		when:
+		def is = DeploymentFormBody.inputStream(BOUNDARY, [new TestFile('/index.html')], redirects)
+		is.readNBytes(10)
+		is.close()
+		then:
+		!opened
+	}
+
+	private static Content content(String text) {
+		return { new ByteArrayInputStream(text.bytes) } as Content
+	}
+
+	/**
+	 * Former CloudflarePagesClient.createFormDataBody, kept as a reference.
+	 */
+	private static byte[] bufferedFormDataBody(Collection<TestFile> files, Content redirectsFile) {
+		byte[] rnDelim = "\r\n".bytes
+		byte[] dashDelim = "--".bytes
+		byte[] boundaryDelim = BOUNDARY.bytes
+		def os = new ByteArrayOutputStream()
+		os.write(dashDelim)
+		os.write(boundaryDelim)
+		os.write(rnDelim)
+		os.write("Content-Disposition: form-data; name=\"manifest\"".bytes)
+		os.write(rnDelim)
+		os.write(rnDelim)
+		JsonBodyHandler.toJson({ generator ->
+			generator.writeStartObject()
+			files.each { generator.write(it.path, it.digest) }
+			generator.writeEnd()
+		}, os)
+		os.write(rnDelim)
+		if (redirectsFile != null) {
+			os.write(dashDelim)
+			os.write(boundaryDelim)
+			os.write(rnDelim)
+			os.write("Content-Disposition: form-data; name=\"_redirects\"; filename=\"_redirects\"".bytes)
+			os.write(rnDelim)
+			os.write("Content-Type: application/octet-stream".bytes)
+			os.write(rnDelim)
+			os.write(rnDelim)
+			redirectsFile.inputStream().withCloseable { it.transferTo(os) }
+			os.write(rnDelim)
+		}
+		os.write(dashDelim)
+		os.write(boundaryDelim)
+		os.write(dashDelim)
+		return os.toByteArray()
+	}
+
+}
@@ -42,7 +42,10 @@ class NetlifyClientSpec extends Specification {
             NetlifyClient.NETLIFY_BASE_URL
 	).start()
 
-	def client = new NetlifyClient("http://localhost:$wireMock.port/".toURI(), getenv().getOrDefault('NETLIFY_ACCESSTOKEN', 'testToken'))
+	@AutoCleanup
+	DeployerTransport transport = new DeployerTransport()
+
+	def client = new NetlifyClient(transport, "http://localhost:$wireMock.port/".toURI(), getenv().getOrDefault('NETLIFY_ACCESSTOKEN', 'testToken'))
 
 	def condition = new PollingConditions(delay: 30, initialDelay: 0.2)
 }
@@ -1,8 +1,14 @@
 package net.pawet.pawgen.deployer
 
+import com.sun.net.httpserver.HttpServer
+import spock.lang.AutoCleanup
 import spock.lang.Specification
 
 import java.lang.Void as Should
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Consumer
 import java.util.stream.Stream
 
 class NetlifyDeployerSpec extends Specification {
@@ -18,7 +24,7 @@ class NetlifyDeployerSpec extends Specification {
 		isDone == false
 		and:
 		1 * client.createDeploy(data) >> Optional.of('deployId')
-		0 * client.uploadFiles('deployId', data) >> false
+		0 * client.uploadFiles('deployId', data, _) >> false
 		and: 'no more invocations'
 		0 * _
 		where:
@@ -36,13 +42,90 @@ class NetlifyDeployerSpec extends Specification {
 		isDone == true
 		and:
 		1 * client.getRequiredFilesFor('deployId') >> Stream.of('/test'.digest('SHA-1'))
-		1 * client.uploadFiles('deployId', data) >> 1
+		1 * client.uploadFiles('deployId', data, _) >> 1
 		and: 'no more invocations'
 		0 * _
 		where:
 		state << ['new', 'uploading', 'prepared']
 	}
 
+	Should "journal every uploaded file before upload is done"() {
+		given:
+		def data = [new TestFile('/uploaded'), new TestFile('/failing')]
+		def client = Mock(NetlifyDeployer)
+		def journal = DeployJournal.none()
+		journal.deployId('deployId')
+		def deployer = new Operation(client, data, journal)
+		when:
+		deployer.deployWithState('prepared')
+		then:
+		thrown(DeployerHttpException)
+		1 * client.getRequiredFilesFor('deployId') >> data.stream().map { it.digest }
+		1 * client.uploadFiles('deployId', data, _) >> { String id, Collection files, Consumer onUploaded ->
+			onUploaded.accept(data[0])
+			throw DeployerHttpException.generic(500, 'failed')
+		}
+		and:
+		journal.uploaded == [data[0].digest] as Set
+	}
+
+	Should "resume deploy from journal without uploading journaled files again"() {
+		given:
+		def data = [new TestFile('/uploaded'), new TestFile('/left')]
+		def client = Mock(NetlifyDeployer)
+		def journal = DeployJournal.none()
+		journal.deployId('deployId')
+		journal.uploaded([data[0].digest])
+		def deployer = new Operation(client, data, journal)
+		when:
+		boolean isDone = deployer.deployWithState('prepared')
+		then:
+		isDone == true
+		1 * client.getRequiredFilesFor('deployId') >> data.stream().map { it.digest }
+		1 * client.uploadFiles('deployId', [data[1]], _) >> 1
+		and: 'no more invocations'
+		0 * _
+	}
+
+	Should "wait for processing when journal has every required file"() {
+		given:
+		def data = [new TestFile('/uploaded')]
+		def client = Mock(NetlifyDeployer)
+		def journal = DeployJournal.none()
+		journal.deployId('deployId')
+		journal.uploaded([data[0].digest])
+		def deployer = new Operation(client, data, journal)
+		when:
+		boolean isDone = deployer.deployWithState('prepared')
+		then:
+		isDone == false
+		1 * client.getRequiredFilesFor('deployId') >> data.stream().map { it.digest }
+		0 * client.uploadFiles(*_)
+		0 * client.cancelDeploy(_)
+		and: 'no more invocations'
+		0 * _
+	}
+
+	Should "upload file deployed before only when it is required again"() {
+		given:
+		def data = [new TestFile('/deployed')]
+		def client = Mock(NetlifyDeployer)
+		def deployer = new Operation(client, data, DeployJournal.none().tap { deployId('deployId') }, [data[0].digest] as Set)
+		when:
+		boolean isDone = deployer.deployWithState('prepared')
+		then:
+		isDone == false
+		1 * client.getRequiredFilesFor('deployId') >> data.stream().map { it.digest }
+		0 * _
+		when: 'remote still asks for it'
+		isDone = deployer.deployWithState('prepared')
+		then:
+		isDone == true
+		1 * client.getRequiredFilesFor('deployId') >> data.stream().map { it.digest }
+		1 * client.uploadFiles('deployId', data, _) >> 1
+		0 * _
+	}
+
 	Should "upload files for #state with no deployId"() {
 		given:
 		def client = Mock(NetlifyDeployer)
@@ -83,4 +166,89 @@ class NetlifyDeployerSpec extends Specification {
 		0 * _
 	}
 
+	Should "upload files concurrently"() {
+		given:
+		def files = (1..8).collect { new TestFile("/test$it") }
+		def deployer = new NetlifyDeployer(transport, server.url, 'token', 'siteId', 8)
+		when:
+		long start = System.nanoTime()
+		long uploaded = deployer.uploadFiles('deployId', files)
+		then:
+		uploaded == 8
+		(System.nanoTime() - start) / 1_000_000 < 8 * FakeUploadServer.DELAY_MS
+		server.requests.keySet() == files.path.collect { "/deploys/deployId/files$it" as String } as Set
+	}
+
+	Should "tell about every uploaded file"() {
+		given:
+		def files = (1..4).collect { new TestFile("/test$it") }
+		def deployer = new NetlifyDeployer(transport, server.url, 'token', 'siteId', 4)
+		def uploaded = ConcurrentHashMap.newKeySet()
+		when:
+		deployer.uploadFiles('deployId', files, uploaded::add)
+		then:
+		uploaded == files as Set
+	}
+
+	Should "retry failed file only"() {
+		given:
+		server.failOnce('/deploys/deployId/files/failing')
+		def files = [new TestFile('/test'), new TestFile('/failing')]
+		def deployer = new NetlifyDeployer(transport, server.url, 'token', 'siteId', 2)
+		when:
+		long uploaded = deployer.uploadFiles('deployId', files)
+		then:
+		uploaded == 2
+		server.requests['/deploys/deployId/files/test'].get() == 1
+		server.requests['/deploys/deployId/files/failing'].get() == 2
+	}
+
+	@AutoCleanup
+	FakeUploadServer server = new FakeUploadServer()
+
+	@AutoCleanup
+	DeployerTransport transport = new DeployerTransport()
+
+	/**
+	 * Plain http/1.1 server, so concurrent uploads don't try h2c upgrade with body
+	 */
+	static final class FakeUploadServer implements AutoCloseable {
+
+		static final long DELAY_MS = 300
+		final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>()
+		final Set<String> failing = ConcurrentHashMap.newKeySet()
+		final HttpServer server = HttpServer.create(new InetSocketAddress('localhost', 0), 0)
+
+		FakeUploadServer() {
+			server.executor = Executors.newCachedThreadPool()
+			server.createContext('/') { exchange ->
+				def path = exchange.requestURI.path
+				exchange.requestBody.readAllBytes()
+				requests.computeIfAbsent(path, { new AtomicInteger() }).incrementAndGet()
+				sleep(DELAY_MS)
+				boolean fail = failing.remove(path)
+				def body = (fail ? '{"code": 500, "message": "failed"}' : '{"size": 10}').bytes
+				exchange.responseHeaders.add('Content-Type', 'application/json')
+				exchange.sendResponseHeaders(fail ? 500 : 200, body.length)
+				exchange.responseBody.withCloseable { it.write(body) }
+			}
+			server.start()
+		}
+
+		URI getUrl() {
+			"http://localhost:${server.address.port}/".toURI()
+		}
+
+		void failOnce(String path) {
+			failing.add(path)
+		}
+
+		@Override
+		void close() {
+			server.stop(0)
+			server.executor.shutdownNow()
+		}
+
+	}
+
 }
@@ -2,9 +2,14 @@ package net.pawet.pawgen.deployer
 
 import spock.lang.Specification
 
+import java.lang.Void as Should
+import java.time.Clock
 import java.time.Duration
+import java.time.Instant
 import java.util.concurrent.atomic.AtomicInteger
 
+import static java.time.ZoneOffset.UTC
+
 class NetlifyRetrierSpec extends Specification {
 
 	def "deploy With Retry"() {
@@ -30,4 +35,29 @@ class NetlifyRetrierSpec extends Specification {
 		counter.get() == 2
 	}
 
+	Should "wait till rate limit reset"() {
+		given:
+		def retrier = new Retrier(Clock.fixed(NOW, UTC), Duration.ofMinutes(1), 2)
+		expect:
+		retrier.waitFor(reset) == wait
+		where:
+		reset               || wait
+		NOW.plusMillis(500) || Duration.ofMillis(500)
+		NOW.minusSeconds(1) || Duration.ZERO
+		Instant.MIN         || Duration.ZERO
+	}
+
+	Should "retry rate limited operation once reset passed"() {
+		given:
+		var counter = new AtomicInteger(0)
+		def deployer = { if (counter.incrementAndGet() == 1) throw DeployerHttpException.rateLimit(429, NOW.minusMillis(1)) }
+		def retrier = new Retrier(Clock.fixed(NOW, UTC), Duration.ZERO, 2)
+		when:
+		retrier.exec(deployer)
+		then:
+		counter.get() == 2
+	}
+
+	static final Instant NOW = Instant.parse('2023-05-01T10:00:00Z')
+
 }
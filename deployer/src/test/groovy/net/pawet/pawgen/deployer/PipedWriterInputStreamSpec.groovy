@@ -0,0 +1,77 @@
+package net.pawet.pawgen.deployer
+
+import jakarta.json.Json
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.lang.Void as Should
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+
+@Timeout(10)
+class PipedWriterInputStreamSpec extends Specification {
+
+	Should "pipe everything writer produces"() {
+		given:
+		byte[] data = new byte[size]
+		new Random(size).nextBytes(data)
+		when:
+		def is = new PipedWriterInputStream({ os -> os.write(data, 0, data.length) })
+		then:
+		is.readAllBytes() == data
+		where:
+		size << [0, 1, PipedWriterInputStream.CHUNK_SIZE, PipedWriterInputStream.CHUNK_SIZE * 10 + 7]
+	}
+
+	Should "stream json while it is generated"() {
+		given:
+		def hashes = (1..10_000).collect { "hash$it" as String }
+		when:
+		def is = new PipedWriterInputStream({ os ->
+			JsonBodyHandler.toJson({ generator ->
+				generator.writeStartObject().writeStartArray('hashes')
+				hashes.each { generator.write(it) }
+				generator.writeEnd().writeEnd()
+			}, os)
+		})
+		then:
+		Json.createReader(is).readObject().getJsonArray('hashes').getValuesAs { it.string } == hashes
+	}
+
+	Should "rethrow writer failure to reader"() {
+		when:
+		new PipedWriterInputStream({ os ->
+			os.write('partial'.bytes)
+			throw new IllegalStateException('broken')
+		}).readAllBytes()
+		then:
+		def e = thrown(IOException)
+		e.cause instanceof IllegalStateException
+	}
+
+	Should "keep writer bounded and stop it on close"() {
+		given:
+		def written = new AtomicLong()
+		def stopped = new CountDownLatch(1)
+		def is = new PipedWriterInputStream({ os ->
+			try {
+				byte[] chunk = new byte[1024]
+				while (true) {
+					os.write(chunk)
+					written.addAndGet(chunk.length)
+				}
+			} finally {
+				stopped.countDown()
+			}
+		})
+		when:
+		sleep(200)
+		then:
+		written.get() <= (PipedWriterInputStream.CAPACITY + 1) * PipedWriterInputStream.CHUNK_SIZE
+		when:
+		is.close()
+		then:
+		stopped.await()
+	}
+
+}
@@ -0,0 +1,132 @@
+package net.pawet.pawgen.deployer
+
+import spock.lang.Specification
+
+import java.lang.Void as Should
+import java.net.http.HttpHeaders
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+
+class RequestSchedulerSpec extends Specification {
+
+	static final Instant NOW = Instant.parse('2023-05-01T10:00:00Z')
+
+	Should "read rate limit with epoch reset"() {
+		when:
+		def limit = RequestScheduler.RateLimit.of(headers('X-RateLimit-Limit': '500', 'X-RateLimit-Remaining': '0', 'X-RateLimit-Reset': String.valueOf(NOW.epochSecond + 30)), NOW)
+		then:
+		limit.limit().asLong == 500
+		limit.remaining().asLong == 0
+		limit.reset().get() == NOW.plusSeconds(30)
+		limit.blockedUntil() == NOW.plusSeconds(30)
+	}
+
+	Should "read relative reset and Retry-After"() {
+		when:
+		def limit = RequestScheduler.RateLimit.of(headers('X-RateLimit-Remaining': '10', 'X-RateLimit-Reset': '60', 'Retry-After': value), NOW)
+		then:
+		limit.reset().get() == NOW.plusSeconds(60)
+		limit.blockedUntil() == blockedUntil
+		where:
+		value                           || blockedUntil
+		'5'                             || NOW.plusSeconds(5)
+		'Mon, 01 May 2023 10:00:07 GMT' || NOW.plusSeconds(7)
+		'soon'                          || Instant.MIN
+	}
+
+	Should "halve concurrency on throttling and grow it after successes"() {
+		given:
+		def scheduler = new RequestScheduler()
+		when:
+		scheduler.acquire('host').release(503, headers([:]))
+		then:
+		scheduler.hosts['host'].concurrency == RequestScheduler.INITIAL_CONCURRENCY.intdiv(2)
+		scheduler.hosts['host'].throttledResponses == 1
+		when:
+		(RequestScheduler.INITIAL_CONCURRENCY.intdiv(2)).times { scheduler.acquire('host').release(200, headers([:])) }
+		then:
+		scheduler.hosts['host'].concurrency == RequestScheduler.INITIAL_CONCURRENCY.intdiv(2) + 1
+	}
+
+	Should "hold requests till Retry-After"() {
+		given:
+		def clock = new MutableClock(NOW)
+		def scheduler = new RequestScheduler(clock)
+		scheduler.acquire('host').release(429, headers('Retry-After': '1'))
+		def host = scheduler.hosts['host']
+		expect:
+		host.tryAcquire() == Duration.ofSeconds(1)
+		when:
+		clock.now = NOW.plusMillis(400)
+		then:
+		host.tryAcquire() == Duration.ofMillis(600)
+		when:
+		clock.now = NOW.plusSeconds(1)
+		then:
+		host.tryAcquire() == Duration.ZERO
+	}
+
+	Should "pace requests to remaining limit"() {
+		given:
+		def clock = new MutableClock(NOW)
+		def scheduler = new RequestScheduler(clock)
+		scheduler.acquire('host').release(200, headers('X-RateLimit-Remaining': '100', 'X-RateLimit-Reset': String.valueOf(NOW.plusSeconds(100).epochSecond)))
+		def host = scheduler.hosts['host']
+		expect: 'one request per second is allowed'
+		host.tryAcquire() == Duration.ofSeconds(1)
+		when:
+		clock.now = NOW.plusMillis(500)
+		then:
+		host.tryAcquire() == Duration.ofMillis(500)
+		when:
+		clock.now = NOW.plusSeconds(1)
+		then:
+		host.tryAcquire() == Duration.ZERO
+		host.tryAcquire() == Duration.ofSeconds(1)
+	}
+
+	Should "wait for release when concurrency is exhausted"() {
+		given:
+		def scheduler = new RequestScheduler(new MutableClock(NOW))
+		def permits = (1..RequestScheduler.INITIAL_CONCURRENCY).collect { scheduler.acquire('host') }
+		def host = scheduler.hosts['host']
+		expect:
+		host.tryAcquire() == null
+		when:
+		permits.first().release(200, headers([:]))
+		then:
+		host.tryAcquire() == Duration.ZERO
+	}
+
+	private static HttpHeaders headers(Map<String, String> values) {
+		HttpHeaders.of(values.collectEntries { k, v -> [k, [v]] } as Map<String, List<String>>, { __, ___ -> true })
+	}
+
+	static final class MutableClock extends Clock {
+
+		Instant now
+
+		MutableClock(Instant now) {
+			this.now = now
+		}
+
+		@Override
+		Instant instant() {
+			now
+		}
+
+		@Override
+		ZoneId getZone() {
+			ZoneOffset.UTC
+		}
+
+		@Override
+		Clock withZone(ZoneId zone) {
+			this
+		}
+	}
+
+}
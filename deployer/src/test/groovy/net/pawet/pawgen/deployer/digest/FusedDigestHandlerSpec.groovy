@@ -0,0 +1,49 @@
+package net.pawet.pawgen.deployer.digest
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.lang.Void as Should
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicReference
+
+class FusedDigestHandlerSpec extends Specification {
+
+	@Unroll
+	Should 'match validator digests for #size bytes written in #chunkSize bytes chunks, direct: #direct'() {
+		given:
+		var content = new byte[size]
+		new Random(size).nextBytes(content)
+		var file = Files.createTempFile('fused', '.html')
+		Files.write(file, content)
+		var sha1 = new AtomicReference<byte[]>()
+		var cf = new AtomicReference<byte[]>()
+		var handler = new FusedDigestHandler(file, sha1::set, cf::set)
+		when:
+		for (int i = 0; i < size; i += chunkSize) {
+			var chunk = Arrays.copyOfRange(content, i, Math.min(i + chunkSize, size))
+			var bb = direct ? ByteBuffer.allocateDirect(chunk.length).put(chunk).flip() : ByteBuffer.wrap(chunk)
+			handler.accept(bb)
+			assert bb.position() == 0
+		}
+		handler.close()
+		then:
+		var expected = DigestValidator.calculate(file)
+		sha1.get() == expected.sha1
+		cf.get() == expected.cfdigest
+		cleanup:
+		Files.deleteIfExists(file)
+		where:
+		size    | chunkSize | direct
+		0       | 1         | false
+		1       | 1         | false
+		2       | 1         | true
+		5       | 2         | false
+		1000    | 7         | true
+		3073    | 3073      | false
+		100_000 | 4096      | true
+		100_000 | 65_536    | false
+	}
+
+}